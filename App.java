@@ -37,6 +37,7 @@ public class App extends JFrame {
     JButton runButton = null;
     JTextField pps = null;
     final private String[] routerChoices = { "Flood", "Distance Vector", "Link State" };
+    private int seenCacheSize = FloodRouter.DEFAULT_SEEN_CACHE_SIZE;  // Packets each flood router remembers
     JDialog debugWindow = null;
     JDialog statsWindow = null;
     
@@ -184,7 +185,7 @@ public class App extends JFrame {
     private JTextArea statsTextArea = null;
     private void setupStatsWindow() {
         statsWindow = new JDialog(this, "Statistics");
-        statsTextArea = new JTextArea(10, 40);
+        statsTextArea = new JTextArea(17, 40);
         statsTextArea.setEditable(false);
         JScrollPane scrollPane = new JScrollPane(statsTextArea);
         statsWindow.add(scrollPane);
@@ -226,6 +227,16 @@ public class App extends JFrame {
                 sb.append("\nDuplicate packets:   " + stat.getDuplicatePackets());
                 sb.append("\nAverage time taken:  " + statsFormat.format(stat.getMeanTimeTaken()) + " ms");
                 sb.append("\nEWMA time taken:     " + statsFormat.format(stat.getEWMATimeTaken()) + " ms");
+                sb.append("\nTime taken p50:      " + stat.getPercentileTimeTaken(50) + " ms");
+                sb.append("\nTime taken p90:      " + stat.getPercentileTimeTaken(90) + " ms");
+                sb.append("\nTime taken p99:      " + stat.getPercentileTimeTaken(99) + " ms");
+                sb.append("\nTime taken p99.9:    " + stat.getPercentileTimeTaken(99.9) + " ms");
+                sb.append("\nTime taken max:      " + stat.getMaxTimeTaken() + " ms");
+                TimingWheel timers = net.getTimers();
+                if (timers != null) {
+                    sb.append("\nPending timers:      " + timers.getPendingTimers());
+                    sb.append("\nTimer tick lag:      " + timers.getTickLag() + " ms (max " + timers.getMaxTickLag() + " ms)");
+                }
                 String sbString = sb.toString();
                 statsTextArea.setText(sbString);
             }
@@ -311,6 +322,26 @@ public class App extends JFrame {
         menuItem = new JMenuItem(menuAction);
         menu.add(menuItem);
         mbar.add(menu);
+
+        menu = new JMenu("Router");
+        menuAction = new AbstractAction("Flood Seen-Cache Size") {
+                public void actionPerformed(ActionEvent e) {
+                    String size = JOptionPane.showInputDialog("Packets each Flood router remembers (currently " + seenCacheSize + ").");
+                    if (size != null && size.length() > 0) {
+                        try {
+                            int n = Integer.parseInt(size);
+                            if (n < 1) throw new NumberFormatException();
+                            seenCacheSize = n;
+                        } catch (NumberFormatException ignore) {
+                            JOptionPane.showMessageDialog(null, "The cache size [" + size + "] must be a positive integer.", "Number Format Error", JOptionPane.ERROR_MESSAGE);
+                        }
+                    }
+                }
+            };
+        menuAction.putValue(Action.SHORT_DESCRIPTION, "Set the size of the Flood routers' seen-packet cache (before running)");
+        menuItem = new JMenuItem(menuAction);
+        menu.add(menuItem);
+        mbar.add(menu);
         setJMenuBar(mbar);
     }
 
@@ -319,7 +350,7 @@ public class App extends JFrame {
         try {
             Router.Generator gen = null;
             switch (routerBox.getSelectedIndex()) {
-            case 0: gen = new FloodRouter.Generator(); break;
+            case 0: gen = new FloodRouter.Generator(seenCacheSize); break;
             case 1: gen = new DistanceVectorRouter.Generator(); break;
             case 2: gen = new LinkStateRouter.Generator(); break;
             default: debug.println(0, "Coding error.  Router not recognized.  Using Flood.");
@@ -508,8 +539,8 @@ public class App extends JFrame {
             g2.setPaint(linkColor);
             g2.setStroke(new BasicStroke(0.2f));
             
-            for (Network.Connection c: source.n.outgoingLinks) {
-                NodeData destination = localNet.get(c.destination.nsap);
+            net.forEachOutgoingLink(source.n, nsap -> {
+                NodeData destination = localNet.get(nsap);
                 Path2D arc = new Path2D.Double();
                 arc.moveTo(source.x, source.y);
                 double dx = destination.x - source.x;
@@ -520,7 +551,7 @@ public class App extends JFrame {
                 arc.quadTo(midx, midy, destination.x, destination.y);
                 g2.draw(arc);
                 // g2.draw(new Line2D.Double(source.x, source.y, destination.x, destination.y));
-            }
+            });
         }
     }
 
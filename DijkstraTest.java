@@ -1,37 +1,28 @@
-
 //Below is a test of the sourced dijkstra calculations that will be implemented in the network for the Graph Packet class.
 public class DijkstraTest {
 	public static void main(String[] args) {
-		// TODO Auto-generated method stub
-		Node nodeA = new Node("11");
-		
-		Node nodeC = new Node("14");
-		Node nodeD = new Node("15"); 
-		Node nodeE = new Node("16");
-		Node nodeF = new Node("17");
-		
-		
-		Graph graph = new Graph();
+		//Nodes are identified by their NSAP
+		IntGraph graph = new IntGraph();
 
-		graph.addNode(nodeA);
+		graph.addNode(11);
 		
-		graph.addNode(nodeC);
-		graph.addNode(nodeD);
-		graph.addNode(nodeE);
-		graph.addNode(nodeF);
+		graph.addNode(14);
+		graph.addNode(15);
+		graph.addNode(16);
+		graph.addNode(17);
 		
 		
-		nodeE.addDestination(nodeD, 12);
+		graph.addDestination(16, 15, 12);
 		
 		
-		nodeA.addDestination(nodeC, 15);
-		Node imposterB = graph.addNode(new Node("12"));
-		imposterB.addDestination(nodeF, 10);
-		nodeA.addDestination(imposterB, 120);
+		graph.addDestination(11, 14, 15);
+		graph.addNode(12);
+		graph.addDestination(12, 17, 10);
+		graph.addDestination(11, 12, 120);
 		
 
 		//Calculate all paths from a specific node
-		graph.calculateShortestPathFromSource(graph, nodeA);
+		graph.calculateShortestPathFromSource(11);
 		
 		System.out.println(graph.toString());
 		
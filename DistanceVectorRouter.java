@@ -5,19 +5,71 @@
  * Represents a router that uses a Distance Vector Routing algorithm.
  ***************/
 
+import java.io.PrintStream;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
 
 public class DistanceVectorRouter extends Router {
 
+    // How routes are advertised back over the link they were learned from
+    public enum Advertising {
+        PLAIN,           // Advertised like any other route (the original behaviour - can count to infinity)
+        SPLIT_HORIZON,   // Left out
+        POISON_REVERSE   // Advertised as unreachable
+    }
+
     // A generator for the given DistanceVectorRouter class
     public static class Generator extends Router.Generator {
+        private Advertising advertising;
+        private Stats stats = new Stats();  // Shared by the routers this generator makes (one network)
+
+        public Generator() {
+            this(Advertising.POISON_REVERSE);
+        }
+
+        public Generator(Advertising advertising) {
+            this.advertising = advertising;
+        }
+
         public Router createRouter(int id, NetworkInterface nic) {
-            return new DistanceVectorRouter(id, nic);
+            return new DistanceVectorRouter(id, nic, advertising, stats);
+        }
+
+        public void displayStats(PrintStream out, long elapsed) {
+            out.println("   Distance vector updates full/triggered: " + stats.fullUpdates.sum() + " / " + stats.triggeredUpdates.sum());
+            out.println("   Distance vector entries sent (per second): " + stats.entriesSent.sum() + " ("
+                        + (elapsed > 0 ? stats.entriesSent.sum() * 1000.0 / elapsed : 0.0) + ")");
+            out.println("   Route cost changes (last one, ms after start): " + stats.routeChanges.sum() + " ("
+                        + Math.max(0, stats.lastRouteChange.get() - stats.firstStart.get()) + ")");
+            out.println("   Hops forwarded/wasted: " + stats.hopsForwarded.sum() + " / " + stats.hopsWasted.sum()
+                        + "   Packets dropped (out of hops/no route): " + stats.packetsDropped.sum() + " / " + stats.packetsUnroutable.sum());
         }
     }
 
+    // The statistics of one network's routers (all of them together)
+    static class Stats {
+        // Control traffic - counted per link the update is sent on
+        final LongAdder fullUpdates = new LongAdder();       // Whole tables sent
+        final LongAdder triggeredUpdates = new LongAdder();  // Just the changed entries sent
+        final LongAdder entriesSent = new LongAdder();       // Table entries in all of those
+
+        // Convergence: routes have settled once no best cost moves by more than CHANGE_THRESHOLD
+        // (ping jitter keeps nudging them, and can swap between near-equal next hops, below that)
+        final LongAdder routeChanges = new LongAdder();      // Times a destination was gained, lost or changed cost
+        final AtomicLong firstStart = new AtomicLong(Long.MAX_VALUE);  // When the first router started
+        final AtomicLong lastRouteChange = new AtomicLong(0);           // When a route last changed
+
+        // Data packets
+        final LongAdder hopsForwarded = new LongAdder();     // Links crossed by data packets
+        final LongAdder hopsWasted = new LongAdder();        // Links crossed by data packets that were then dropped
+        final LongAdder packetsDropped = new LongAdder();    // Data packets that ran out of hops
+        final LongAdder packetsUnroutable = new LongAdder(); // Data packets with no (finite) route to their destination
+    }
+
     //Class to ping neighbors
     public class Ping {
         long startTime;
@@ -31,12 +83,15 @@ public class DistanceVectorRouter extends Router {
     }
 
     // This is the special packet that contains the distance table
+    // Either the whole table, or just the entries that changed since the last one sent
     public static class DistPacket {
         Map<Integer, DLPair> distTable;
+        boolean full;  // True if this is the whole table (anything not in it is gone)
 
         //Integer = Router, DLPair = distance to the Router and the link to send it on
-        public DistPacket(Map<Integer, DLPair> distTable) {
+        public DistPacket(Map<Integer, DLPair> distTable, boolean full) {
             this.distTable = distTable;
+            this.full = full;
         }
     }
 
@@ -56,14 +111,40 @@ public class DistanceVectorRouter extends Router {
     public double[] pingDist; //Ping distance of the neighbors based on the index of the link
     private ArrayList<Integer> outLinks = nic.getOutgoingLinks(); //Outgoing links of this router
     private ArrayList<Map<Integer, DLPair>> neighborMap = new ArrayList<>(); //routeMaps of neighboring routers
-    private long nextRecalcTime;
+    private Advertising advertising;  // How routes learned from a neighbor are advertised back to it
+    private Stats stats;              // Where this router's statistics go (its network's)
+    private ArrayList<Map<Integer, Double>> advertised = new ArrayList<>(); // The distances each neighbor was last told
+    private Map<Integer, Double> counted = new HashMap<>(); // The distance to each destination when its route last counted as changed
+    private boolean changed;         // Something arrived that may change our routes
+    private long nextRecalcTime;     // When we next ping the neighbors (and recalculate)
+    private long nextUpdateTime;     // Earliest time we may send the neighbors another (triggered) update
+    private long nextRefreshTime;    // When we next send the neighbors our whole table
     private static final long TIME_BETWEEN_RECALC = 1000; // (milliseconds)
+    private static final long TIME_BETWEEN_UPDATES = 50;  // Least time between two triggered updates (milliseconds)
+    private static final long TIME_BETWEEN_REFRESH = 10000; // Whole table sent this often, in case an update went missing (milliseconds)
+    private static final double CHANGE_THRESHOLD = 0.1;   // How much (fraction) a distance must change before neighbors are told
+    private static final double MIN_CHANGE = 1;           // ... and by more than this (ms) - the clock's resolution
+    private static final int MAX_HOPS = 16;  // Links a data packet may cross before it is dropped
 
 
     public DistanceVectorRouter(int nsap, NetworkInterface nic) {
+        this(nsap, nic, Advertising.POISON_REVERSE);
+    }
+
+    public DistanceVectorRouter(int nsap, NetworkInterface nic, Advertising advertising) {
+        this(nsap, nic, advertising, new Stats());
+    }
+
+    DistanceVectorRouter(int nsap, NetworkInterface nic, Advertising advertising, Stats stats) {
         super(nsap, nic);
         debug = Debug.getInstance();  // For debugging!
-        nextRecalcTime = System.currentTimeMillis() + TIME_BETWEEN_RECALC;
+        this.advertising = advertising;
+        this.stats = stats;
+        stats.firstStart.accumulateAndGet(nic.currentTimeMillis(), Math::min);
+        nextRecalcTime = nic.currentTimeMillis() + TIME_BETWEEN_RECALC;
+        nextUpdateTime = nextRecalcTime;
+        nextRefreshTime = nextRecalcTime;  // First table sent is a whole one
+        changed = false;
         pingDist = new double[outLinks.size()];
 
         //Initialize the pingDist to Infinity and add the values to the neighborMap
@@ -73,39 +154,34 @@ public class DistanceVectorRouter extends Router {
             Map<Integer, DLPair> initTable = new HashMap<>();
             initTable.put(outLinks.get(i), new DLPair(pingDist[i], i));
             neighborMap.add(initTable);
+            advertised.add(new HashMap<>());
         }
     }
 
-    public void run() {
-        while (true) {
-            if (System.currentTimeMillis() >= nextRecalcTime) {
-                pingNeigbhors();
-                recalculate();
-            }
-            // See if there is anything to process
-            boolean process = false;
-            NetworkInterface.TransmitPair toSend = nic.getTransmit();
-            if (toSend != null) {
-                // There is something to send out
-                process = true;
-                route(toSend.destination, new Packet(nsap, toSend.destination, 5, toSend.data));
-            }
+    protected boolean process() {
+        long now = nic.currentTimeMillis();
+        if (now >= nextRecalcTime) {
+            pingNeigbhors();
+            nextRecalcTime = now + TIME_BETWEEN_RECALC;
+            changed = true;
+        }
+        if (now >= nextRefreshTime || (changed && now >= nextUpdateTime)) {
+            recalculate();
+        }
+        // See if there is anything to process - take whole batches off the NIC
+        int sent = nic.drainTransmit(toSend, BATCH_SIZE);
+        int routed = nic.drainReceived(toRoute, BATCH_SIZE);
+        return sent + routed > 0;
+    }
 
-            NetworkInterface.ReceivePair toRoute = nic.getReceived();
-            if (toRoute != null) {
-                // There is something to route through - or it might have arrived at destination
-                process = true;
-                processPacket(toRoute.originator, toRoute.data);
-            }
+    // There is something to send out
+    private RingBuffer.Consumer toSend = (destination, data) -> route(destination, new Packet(nsap, destination, MAX_HOPS, data));
+    // There is something to route through - or it might have arrived at destination
+    private RingBuffer.Consumer toRoute = this::processPacket;
 
-            if (!process) {
-                // Didn't do anything, so sleep a bit
-                try {
-                    Thread.sleep(1);
-                } catch (InterruptedException e) {
-                }
-            }
-        }
+    protected long nextTimerDeadline() {
+        long deadline = Math.min(nextRecalcTime, nextRefreshTime);
+        return changed ? Math.min(deadline, nextUpdateTime) : deadline;
     }
 
     //Process the packets recieved from the network
@@ -114,7 +190,13 @@ public class DistanceVectorRouter extends Router {
         //Update the table in the neighborMap with the new incoming table
         if (data instanceof DistPacket) {
             DistPacket p = (DistPacket) data;
-            neighborMap.set(outLinks.indexOf(originator), p.distTable);
+            int link = outLinks.indexOf(originator);
+            if (p.full) {
+                neighborMap.set(link, new HashMap<>(p.distTable));  // Our own copy - the packet's table went to all its neighbors
+            } else {
+                neighborMap.get(link).putAll(p.distTable);
+            }
+            changed = true;
         }
 
         //If the data is a ping then it is send back to originator,
@@ -125,7 +207,10 @@ public class DistanceVectorRouter extends Router {
                 ping.arrived = true;
                 nic.sendOnLink(outLinks.indexOf(originator), ping);
             } else if (ping.arrived) {
-                pingDist[outLinks.indexOf(originator)] = (System.currentTimeMillis() - ping.startTime) / 2.0;
+                int link = outLinks.indexOf(originator);
+                double dist = (nic.currentTimeMillis() - ping.startTime) / 2.0;
+                if (hasChanged(pingDist[link], dist)) changed = true;
+                pingDist[link] = dist;
             }
         }
 
@@ -136,22 +221,31 @@ public class DistanceVectorRouter extends Router {
             if (packet.dest == nsap) {
                 nic.trackArrivals(packet.payload);
             } else if (packet.hopCount > 0) {
-
+                packet.hopCount--;
                 route(packet.dest, packet);
             } else {
+                stats.packetsDropped.increment();
+                stats.hopsWasted.add(MAX_HOPS + 1);  // Every link it crossed was for nothing
                 debug.println(0, "Packet has too many hops.  Dropping packet from " + packet.source + " to " + packet.dest + " by router " + nsap);
             }
         }
     }
 
     //Recalculates the routeMap using the neighboring routeMaps stored in neighborMap
+    //and tells the neighbors what changed (or everything, when a refresh is due)
     private void recalculate() {
-        nextRecalcTime = System.currentTimeMillis() + TIME_BETWEEN_RECALC;
+        long now = nic.currentTimeMillis();
+        changed = false;
+        nextUpdateTime = now + TIME_BETWEEN_UPDATES;
+        boolean full = now >= nextRefreshTime;
+        if (full) nextRefreshTime = now + TIME_BETWEEN_REFRESH;
+
         Map<Integer, DLPair> tempTable = new HashMap<>();
         tempTable.put(nic.getNSAP(), new DLPair(0, -1));
 
         //add the pingDist table to the temp map.
         for (int i = 0; i < pingDist.length; i++) {
+            if (pingDist[i] == Double.POSITIVE_INFINITY) continue;  // Not heard back yet
             tempTable.put(outLinks.get(i), new DLPair(pingDist[i], i));
         }
 
@@ -159,38 +253,102 @@ public class DistanceVectorRouter extends Router {
             final int CURRENT_LINK = i;
             neighborMap.get(i).forEach((id, dl) -> {
                 double dist = dl.distance + pingDist[CURRENT_LINK];
-                if (routeTable.get(id) == null || dist < routeTable.get(id).distance) {
+                if (dist == Double.POSITIVE_INFINITY) return;  // Poisoned, or the neighbor can't reach it
+                DLPair best = tempTable.get(id);
+                if (best == null || dist < best.distance) {
                     tempTable.put(id, new DLPair(dist, CURRENT_LINK));
                 }
             });
         }
 
-        // transmit table to the neighbors
-        DistPacket distPacket = new DistPacket(tempTable);
+        // Tell each neighbor what changed (as far as it is concerned)
         int size = outLinks.size();
         for (int i = 0; i < size; i++) {
-            nic.sendOnLink(i, distPacket);
+            Map<Integer, DLPair> update = updateFor(i, tempTable, full);
+            if (full || !update.isEmpty()) {
+                nic.sendOnLink(i, new DistPacket(update, full));
+                (full ? stats.fullUpdates : stats.triggeredUpdates).increment();
+                stats.entriesSent.add(update.size());
+            }
+        }
+
+        // Did any route really change (not just jitter)?
+        int moved = 0;
+        for (Map.Entry<Integer, DLPair> entry : tempTable.entrySet()) {
+            Double before = counted.get(entry.getKey());
+            if (before == null || hasChanged(before, entry.getValue().distance)) {
+                counted.put(entry.getKey(), entry.getValue().distance);
+                moved++;
+            }
+        }
+        for (Iterator<Integer> dests = counted.keySet().iterator(); dests.hasNext(); ) {
+            if (!tempTable.containsKey(dests.next())) {
+                dests.remove();
+                moved++;
+            }
+        }
+        if (moved > 0) {
+            stats.routeChanges.add(moved);
+            stats.lastRouteChange.accumulateAndGet(now, Math::max);
         }
 
         routeTable = tempTable; //makes it the new map (might need to be synchronized)
     }
 
+    //The entries the neighbor on the given link needs to hear about (everything if full)
+    private Map<Integer, DLPair> updateFor(int link, Map<Integer, DLPair> table, boolean full) {
+        Map<Integer, Double> told = advertised.get(link);
+        if (full) told.clear();
+        Map<Integer, DLPair> update = new HashMap<>();
+        for (Map.Entry<Integer, DLPair> entry : table.entrySet()) {
+            DLPair dl = entry.getValue();
+            Double last = told.get(entry.getKey());
+            if (dl.link == link && link >= 0 && advertising != Advertising.PLAIN) {
+                // Learned from this neighbor - don't offer it back
+                if (advertising == Advertising.SPLIT_HORIZON && (last == null || last == Double.POSITIVE_INFINITY)) continue;
+                dl = new DLPair(Double.POSITIVE_INFINITY, dl.link);
+            }
+            if (last == null || hasChanged(last, dl.distance)) {
+                update.put(entry.getKey(), dl);
+                told.put(entry.getKey(), dl.distance);
+            }
+        }
+        // Anything we could reach before but can't now
+        for (Map.Entry<Integer, Double> entry : told.entrySet()) {
+            if (!table.containsKey(entry.getKey()) && entry.getValue() != Double.POSITIVE_INFINITY) {
+                update.put(entry.getKey(), new DLPair(Double.POSITIVE_INFINITY, -1));
+                entry.setValue(Double.POSITIVE_INFINITY);
+            }
+        }
+        return update;
+    }
+
+    //Is a new distance different enough from an old one to tell the neighbors?
+    private static boolean hasChanged(double before, double after) {
+        if (before == Double.POSITIVE_INFINITY || after == Double.POSITIVE_INFINITY) return before != after;
+        return Math.abs(after - before) > Math.max(CHANGE_THRESHOLD * before, MIN_CHANGE);
+    }
+
     //Pings all the neighboring routers
     private void pingNeigbhors() {
         ArrayList<Integer> outLinks = nic.getOutgoingLinks();
         int size = outLinks.size();
         for (int i = 0; i < size; i++) {
-            nic.sendOnLink(i, new Ping(outLinks.get(i), System.currentTimeMillis()));
+            nic.sendOnLink(i, new Ping(outLinks.get(i), nic.currentTimeMillis()));
         }
     }
 
     //Sends the given packet out based on the table
-    //If the destination is not on the table it routes it to the first router
-    private void route(int link, Packet p) {
-        if (routeTable.get(link) != null) {
-            nic.sendOnLink(routeTable.get(link).link, p);
-        } else {
-            nic.sendOnLink(0, p);
+    //If there is no route to the destination the packet is dropped (rather than bounced around until out of hops)
+    private void route(int dest, Packet p) {
+        DLPair dl = routeTable.get(dest);
+        if (dl == null || dl.link < 0 || dl.distance == Double.POSITIVE_INFINITY) {
+            stats.packetsUnroutable.increment();
+            stats.hopsWasted.add(MAX_HOPS - p.hopCount);  // The links it already crossed
+            debug.println(4, "No route from " + nsap + " to " + dest + ".  Dropping packet from " + p.source);
+            return;
         }
+        stats.hopsForwarded.increment();
+        nic.sendOnLink(dl.link, p);
     }
 }
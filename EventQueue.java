@@ -0,0 +1,82 @@
+/***************
+ * EventQueue
+ *
+ * The engine behind the discrete-event mode of the Network.
+ * Keeps a virtual clock (in milliseconds) and a priority queue of events keyed by
+ * the simulated time at which they happen.  Running the queue jumps the clock straight
+ * to the next event, so a link delay of 500ms costs nothing in wall-clock time and
+ * the same seed always gives the same run.
+ ***************/
+import java.util.PriorityQueue;
+
+public class EventQueue {
+    // A single scheduled action
+    private static class Event implements Comparable<Event> {
+        long time;        // Simulated time (ms) at which the action happens
+        long order;       // Tie-breaker so events at the same time run in the order scheduled
+        Runnable action;  // What to do
+
+        Event(long time, long order, Runnable action) {
+            this.time = time;
+            this.order = order;
+            this.action = action;
+        }
+
+        public int compareTo(Event other) {
+            if (time != other.time) return Long.compare(time, other.time);
+            return Long.compare(order, other.order);
+        }
+    }
+
+    private PriorityQueue<Event> queue;
+    private long now;         // The current simulated time (ms)
+    private long orderCount;  // Number of events scheduled so far (for tie-breaking)
+
+    public EventQueue() {
+        queue = new PriorityQueue<>();
+        now = 0;
+        orderCount = 0;
+    }
+
+    /** The current simulated time in milliseconds **/
+    public long currentTimeMillis() { return now; }
+
+    /** Number of events still waiting to happen **/
+    public int size() { return queue.size(); }
+
+    /**
+     * Schedule an action at the given simulated time.
+     * Times in the past are treated as "right now".
+     **/
+    public void schedule(long time, Runnable action) {
+        if (time < now) time = now;
+        queue.add(new Event(time, orderCount++, action));
+    }
+
+    /** Schedule an action delay milliseconds from now **/
+    public void scheduleAfter(long delay, Runnable action) {
+        schedule(now + delay, action);
+    }
+
+    /**
+     * Run the next event (advancing the clock to it)
+     * @returns false if there was nothing left to run
+     **/
+    public boolean step() {
+        Event e = queue.poll();
+        if (e == null) return false;
+        now = e.time;
+        e.action.run();
+        return true;
+    }
+
+    /**
+     * Run every event up to and including the given time, then move the clock to that time.
+     **/
+    public void runUntil(long time) {
+        while (!queue.isEmpty() && queue.peek().time <= time) {
+            step();
+        }
+        if (time > now) now = time;
+    }
+}
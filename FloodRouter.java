@@ -3,77 +3,154 @@
  * Author: Christian Duncan
  *
  * Represents a trivial router that just floods the network until packet reaches destination
+ *
+ * Every packet is tagged with its source and a per-source sequence number, and each router keeps a
+ * small, fixed-size cache of the tags it has seen, so it passes each packet on at most once.
  ***************/
+import java.io.PrintStream;
 import java.util.ArrayList;
+import java.util.concurrent.atomic.LongAdder;
 
 public class FloodRouter extends Router {
     // A generator for the given FloodRouter class
     public static class Generator extends Router.Generator {
+        private int seenCacheSize;
+        private Stats stats = new Stats();  // Shared by the routers this generator makes (one network)
+
+        public Generator() {
+            this(DEFAULT_SEEN_CACHE_SIZE);
+        }
+
+        // Routers remember (about) the last seenCacheSize packets they have seen
+        public Generator(int seenCacheSize) {
+            this.seenCacheSize = seenCacheSize;
+        }
+
         public Router createRouter(int id, NetworkInterface nic) {
-            return new FloodRouter(id, nic);
+            return new FloodRouter(id, nic, seenCacheSize, stats);
         }
+
+        public void displayStats(PrintStream out, long elapsed) {
+            out.println("   Seen-cache size/hits/misses: " + seenCacheSize + " / " + stats.seenHits.sum() + " / " + stats.seenMisses.sum());
+        }
+    }
+
+    // How often a packet had already been seen (all of one network's routers together)
+    static class Stats {
+        final LongAdder seenHits = new LongAdder();
+        final LongAdder seenMisses = new LongAdder();
     }
 
+    public static final int DEFAULT_SEEN_CACHE_SIZE = 4096;
+    private static final int WAYS = 4;  // Tags per bucket of the seen cache
+
     public static class Packet {
         // This is how we will store our Packet Header information
         int source;
         int dest;
         int hopCount;  // Maximum hops to get there
+        int sequence;  // Numbers the packets from the same source
         Object payload;  // The payload!
         
-        public Packet(int source, int dest, int hopCount, Object payload) {
+        public Packet(int source, int dest, int hopCount, int sequence, Object payload) {
             this.source = source;
             this.dest = dest;
             this.hopCount = hopCount;
+            this.sequence = sequence;
             this.payload = payload;
         }
     }
 
     Debug debug;
+    private int sequence;  // Sequence number of the last packet we sent
+    private long[] seen;   // Tags of packets seen recently, WAYS per bucket (0 = empty)
+    private int seenMask;  // Bucket count - 1
+    private int evict;     // Which way of a full bucket to replace next
+    private Stats stats;   // Where the cache hits and misses are counted (the network's)
     
     public FloodRouter(int nsap, NetworkInterface nic) {
+        this(nsap, nic, DEFAULT_SEEN_CACHE_SIZE);
+    }
+
+    public FloodRouter(int nsap, NetworkInterface nic, int seenCacheSize) {
+        this(nsap, nic, seenCacheSize, new Stats());
+    }
+
+    FloodRouter(int nsap, NetworkInterface nic, int seenCacheSize, Stats stats) {
         super(nsap, nic);
+        this.stats = stats;
         debug = Debug.getInstance();  // For debugging!
+        sequence = 0;
+        int buckets = 1;
+        while (buckets * WAYS < seenCacheSize) buckets <<= 1;
+        seen = new long[buckets * WAYS];
+        seenMask = buckets - 1;
+        evict = 0;
     }
 
-    public void run() {
-        while (true) {
-            // See if there is anything to process
-            boolean process = false;
-            NetworkInterface.TransmitPair toSend = nic.getTransmit();
-            if (toSend != null) {
-                // There is something to send out
-                process = true;
-                route(-1, new Packet(nsap, toSend.destination, 5, toSend.data));
+    /**
+     * Check a packet's tag against the cache, adding it if it is new
+     * @returns true if it was seen before
+     * A tag pushed out of a full bucket is forgotten - so a packet may (rarely) be passed on twice, but never lost.
+     **/
+    private boolean seenBefore(int source, int sequence) {
+        long tag = ((long) source << 32) | (sequence & 0xFFFFFFFFL);
+        int h = (source * 0x9E3779B9) ^ sequence;
+        int bucket = ((h ^ (h >>> 16)) & seenMask) * WAYS;
+        int empty = -1;
+        for (int i = bucket; i < bucket + WAYS; i++) {
+            if (seen[i] == tag) {
+                stats.seenHits.increment();
+                return true;
             }
+            if (seen[i] == 0 && empty < 0) empty = i;
+        }
+        stats.seenMisses.increment();
+        if (empty < 0) {
+            empty = bucket + evict;
+            evict = (evict + 1) & (WAYS - 1);
+        }
+        seen[empty] = tag;
+        return false;
+    }
 
-            NetworkInterface.ReceivePair toRoute = nic.getReceived();
-            if (toRoute != null) {
-                // There is something to route through - or it might have arrived at destination
-                process = true;
-                if (toRoute.data instanceof Packet) {
-                    Packet p = (Packet) toRoute.data;
-                    if (p.dest == nsap) {
-                        // It made it!  Inform the "network" for statistics tracking purposes
-                        debug.println(4, "(FloodRouter.run): Packet has arrived!  Reporting to the NIC - for accounting purposes!");
-                        debug.println(6, "(FloodRouter.run): Payload: " + p.payload);
-                        nic.trackArrivals(p.payload);
-                    } else if (p.hopCount > 0) {
-                        // Still more routing to do
-                        p.hopCount--;
-                        route(toRoute.originator, p);
-                    } else {
-                        debug.println(5, "Packet has too many hops.  Dropping packet from " + p.source + " to " + p.dest + " by router " + nsap);
-                    }
-                } else {
-                    debug.println(0, "Error.  The packet being tranmitted is not a recognized Flood Packet.  Not processing");
-                }
-            }
+    protected boolean process() {
+        // See if there is anything to process - take whole batches off the NIC
+        int sent = nic.drainTransmit(toSend, BATCH_SIZE);
+        int routed = nic.drainReceived(toRoute, BATCH_SIZE);
+        return sent + routed > 0;
+    }
+
+    private RingBuffer.Consumer toSend = this::send;
+    private RingBuffer.Consumer toRoute = this::receive;
+
+    // There is something to send out
+    private void send(int destination, Object data) {
+        sequence++;
+        seenBefore(nsap, sequence);  // So it isn't passed on again when it comes back to us
+        route(-1, new Packet(nsap, destination, 5, sequence, data));
+    }
 
-            if (!process) {
-                // Didn't do anything, so sleep
-                try { Thread.sleep(1); } catch (InterruptedException e) { }
+    // There is something to route through - or it might have arrived at destination
+    private void receive(int originator, Object data) {
+        if (data instanceof Packet) {
+            Packet p = (Packet) data;
+            if (seenBefore(p.source, p.sequence)) {
+                // Already delivered or passed on - this is just another copy
+                debug.println(5, "Packet already seen.  Dropping packet from " + p.source + " to " + p.dest + " by router " + nsap);
+            } else if (p.dest == nsap) {
+                // It made it!  Inform the "network" for statistics tracking purposes
+                debug.println(4, "(FloodRouter.run): Packet has arrived!  Reporting to the NIC - for accounting purposes!");
+                debug.println(6, "(FloodRouter.run): Payload: " + p.payload);
+                nic.trackArrivals(p.payload);
+            } else if (p.hopCount > 0) {
+                // Still more routing to do - as a new packet, the one we got went to other routers as well
+                route(originator, new Packet(p.source, p.dest, p.hopCount - 1, p.sequence, p.payload));
+            } else {
+                debug.println(5, "Packet has too many hops.  Dropping packet from " + p.source + " to " + p.dest + " by router " + nsap);
             }
+        } else {
+            debug.println(0, "Error.  The packet being tranmitted is not a recognized Flood Packet.  Not processing");
         }
     }
 
@@ -0,0 +1,166 @@
+/***************
+ * ForwardingTable
+ *
+ * A compiled next-hop table: destination NSAP -> index of the outgoing link(s) to send it on.
+ * Looking a destination up is a constant-time probe of a primitive open-addressed table, with no
+ * boxing, no string work and no scanning of the link list.
+ *
+ * A destination may have several equally good links (equal-cost multipath); a flow hash picks
+ * one of them, so all packets of one flow take the same link while different flows spread out.
+ *
+ * A table is filled in once by whoever builds it and then published (e.g. through a volatile field);
+ * it is never changed after that, so any number of threads may read it without locking.
+ ***************/
+
+public class ForwardingTable {
+    public static final int NO_ROUTE = -1;   // Returned for destinations not in the table
+
+    private int[] keys;      // Destination NSAPs
+    private int[] first;     // Where each destination's links start in pool
+    private int[] count;     // How many links each destination has
+    private boolean[] used;  // Which slots are filled
+    private int[] pool;      // The link indices of all destinations
+    private int poolSize;
+    private int mask;
+    private int size;
+
+    /**
+     * Create an empty table with room for the given number of destinations
+     **/
+    public ForwardingTable(int expected) {
+        int slots = 4;
+        while (slots < expected * 2) slots <<= 1;  // Keep it at most half full
+        keys = new int[slots];
+        first = new int[slots];
+        count = new int[slots];
+        used = new boolean[slots];
+        mask = slots - 1;
+        size = 0;
+        pool = new int[Math.max(4, expected)];
+        poolSize = 0;
+    }
+
+    // Spread the NSAP bits so runs of consecutive NSAPs don't cluster
+    private static int slotOf(int key, int mask) {
+        int h = key * 0x9E3779B9;
+        return (h ^ (h >>> 16)) & mask;
+    }
+
+    /**
+     * Set the link to use for a destination (only while building the table)
+     **/
+    public void put(int dest, int link) {
+        put(dest, new int[] { link }, 1);
+    }
+
+    /**
+     * Set the links a destination's flows are spread over (only while building the table)
+     **/
+    public void put(int dest, int[] links, int linkCount) {
+        if (poolSize + linkCount > pool.length) {
+            int[] bigger = new int[Math.max(poolSize + linkCount, pool.length * 2)];
+            System.arraycopy(pool, 0, bigger, 0, poolSize);
+            pool = bigger;
+        }
+        System.arraycopy(links, 0, pool, poolSize, linkCount);
+        int i = slotFor(dest);
+        first[i] = poolSize;
+        count[i] = linkCount;
+        poolSize += linkCount;
+    }
+
+    // The slot for a destination, claiming an empty one if it is new
+    private int slotFor(int dest) {
+        if (size * 2 >= keys.length) grow();
+        int i = slotOf(dest, mask);
+        while (used[i] && keys[i] != dest) i = (i + 1) & mask;
+        if (!used[i]) {
+            used[i] = true;
+            keys[i] = dest;
+            size++;
+        }
+        return i;
+    }
+
+    /**
+     * Set the link for a destination unless it already has one
+     **/
+    public void putIfAbsent(int dest, int link) {
+        if (get(dest) == NO_ROUTE) put(dest, link);
+    }
+
+    // The slot holding a destination, or -1
+    private int find(int dest) {
+        int i = slotOf(dest, mask);
+        while (used[i]) {
+            if (keys[i] == dest) return i;
+            i = (i + 1) & mask;
+        }
+        return -1;
+    }
+
+    /**
+     * The (first) outgoing link index for a destination
+     * @returns NO_ROUTE if there is no route to it
+     **/
+    public int get(int dest) {
+        int i = find(dest);
+        return (i < 0) ? NO_ROUTE : pool[first[i]];
+    }
+
+    /**
+     * The outgoing link index for a flow to a destination, picked by the flow's hash
+     * @returns NO_ROUTE if there is no route to it
+     **/
+    public int get(int dest, int flowHash) {
+        int i = find(dest);
+        if (i < 0) return NO_ROUTE;
+        if (count[i] == 1) return pool[first[i]];
+        return pool[first[i] + (int) ((flowHash & 0xFFFFFFFFL) % count[i])];
+    }
+
+    /** Number of links a destination's flows are spread over (0 if there is no route) **/
+    public int getLinkCount(int dest) {
+        int i = find(dest);
+        return (i < 0) ? 0 : count[i];
+    }
+
+    /** Number of destinations in the table **/
+    public int size() { return size; }
+
+    private void grow() {
+        int[] oldKeys = keys;
+        int[] oldFirst = first;
+        int[] oldCount = count;
+        boolean[] oldUsed = used;
+        keys = new int[oldKeys.length * 2];
+        first = new int[oldKeys.length * 2];
+        count = new int[oldKeys.length * 2];
+        used = new boolean[oldKeys.length * 2];
+        mask = keys.length - 1;
+        size = 0;
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldUsed[i]) {
+                int j = slotFor(oldKeys[i]);
+                first[j] = oldFirst[i];
+                count[j] = oldCount[i];
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder result = new StringBuilder("{");
+        for (int i = 0; i < keys.length; i++) {
+            if (used[i]) {
+                if (result.length() > 1) result.append(", ");
+                result.append(keys[i]).append("->");
+                for (int k = 0; k < count[i]; k++) {
+                    if (k > 0) result.append("|");
+                    result.append(pool[first[i] + k]);
+                }
+            }
+        }
+        return result.append("}").toString();
+    }
+}
@@ -9,11 +9,27 @@ import java.util.HashMap;
 //It will also conduct the Dijkstra shortest distance calculations.
 public class GraphPacket extends Packet{
 	public HashMap<Integer, Double> linkTable;
+	public LinkStateRecord record; //The same, as a shared record (when the routers share their link-state database - linkTable is null then)
+	public int sequence; //Counts up with each new advertisement from the same source, so older copies can be told apart
 	
-	public GraphPacket(int source, int destination, int hopCount, HashMap<Integer, Double> linkTable) {
+	public GraphPacket(int source, int destination, int hopCount, HashMap<Integer, Double> linkTable, int sequence) {
 		super(source, destination, hopCount, null);
 		// TODO Auto-generated constructor stub
 		this.linkTable = linkTable;
+		this.sequence = sequence;
+	}
+	
+	public GraphPacket(int source, int destination, int hopCount, LinkStateRecord record, int sequence) {
+		super(source, destination, hopCount, null);
+		this.record = record;
+		this.sequence = sequence;
+	}
+	
+	//The same advertisement with a new hop count (for passing it on)
+	public GraphPacket copy(int hopCount) {
+		GraphPacket p = new GraphPacket(source, dest, hopCount, linkTable, sequence);
+		p.record = record;
+		return p;
 	}
 
 }
@@ -0,0 +1,382 @@
+/***************
+ * IntGraph
+ *
+ * A directed, weighted graph whose nodes are identified by int (e.g. NSAPs) rather than by name.
+ * Nodes get dense indices through a primitive open-addressed id -> index table, and each node's
+ * links are kept in primitive arrays, with a (from, to) -> position table so that adding a node or
+ * a destination (or changing its cost) is O(1) - no scanning, no Strings, no boxing.
+ *
+ * Shortest paths are calculated by an SpfEngine, and recalculate() only does the work the
+ * changes since the last calculation need: nothing, the paths affected by changed costs, or everything
+ * when nodes or links came or went.
+ ***************/
+import java.util.Arrays;
+
+public class IntGraph {
+    // What the last recalculation had to do
+    public static final int SKIPPED = 0;      // Nothing had changed
+    public static final int INCREMENTAL = 1;  // Only some link costs changed, so just the affected paths were redone
+    public static final int FULL = 2;         // Everything was recalculated
+
+    // Nodes: id -> index (open addressing, index + 1 stored so 0 means empty)
+    private int[] idKeys;
+    private int[] idSlots;
+    private int[] ids;            // Id of each node (by index)
+    private int nodeCount;
+
+    // Links of each node (by index)
+    private int[][] linkTarget;   // Index of the node at the other end
+    private double[][] linkCost;
+    private int[] degree;
+
+    // Links: (from index, to index) -> position in from's lists (open addressing, position + 1 stored, 0 means empty)
+    private long[] linkKeys;
+    private int[] linkSlots;
+    private int linkCount;
+
+    // Shortest paths
+    private SpfEngine spf;
+    private double equalCostTolerance = -1;  // Passed on to SpfEngine.computeNextHops (negative = keep one path)
+    private int source = -1;                 // Index of the source of the last calculation
+    private int laidOut = 0;                 // Nodes in the last full calculation
+    private int[] start = new int[1];        // The links laid out as arrays for the engine
+    private int[] target = new int[0];
+    private double[] weight = new double[0];
+    private boolean structureChanged = true; // Nodes or links were added or removed since the last calculation
+    private int pendingCount = 0;            // Links whose cost changed since then (and their new costs)
+    private int[] pendingFrom = new int[8];
+    private int[] pendingEdge = new int[8];
+    private double[] pendingWeight = new double[8];
+
+    public IntGraph() {
+        this(new SpfEngine());
+    }
+
+    // Use the given engine (and its working memory) for the calculations
+    // If another graph uses it in between, recalculate falls back to a full calculation
+    public IntGraph(SpfEngine spf) {
+        this.spf = spf;
+        idKeys = new int[16];
+        idSlots = new int[16];
+        ids = new int[8];
+        linkTarget = new int[8][];
+        linkCost = new double[8][];
+        degree = new int[8];
+        linkKeys = new long[16];
+        linkSlots = new int[16];
+        nodeCount = 0;
+        linkCount = 0;
+    }
+
+    // Keep every first hop that starts a shortest path (or one up to the given fraction longer), not just one
+    // A negative tolerance goes back to a single path per destination
+    public void setEqualCostTolerance(double tolerance) {
+        equalCostTolerance = tolerance;
+    }
+
+    // ---- Nodes ----
+
+    private static int hash(long key, int mask) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32)) & mask;
+    }
+
+    /** The index of the node with the given id, or -1 if there is none **/
+    public int indexOf(int id) {
+        int mask = idKeys.length - 1;
+        for (int i = hash(id, mask); idSlots[i] != 0; i = (i + 1) & mask) {
+            if (idKeys[i] == id) return idSlots[i] - 1;
+        }
+        return -1;
+    }
+
+    /** Add a node (if there isn't one with that id already), returning its index **/
+    public int addNode(int id) {
+        int mask = idKeys.length - 1;
+        int i = hash(id, mask);
+        for (; idSlots[i] != 0; i = (i + 1) & mask) {
+            if (idKeys[i] == id) return idSlots[i] - 1;
+        }
+        int index = nodeCount++;
+        if (index == ids.length) {
+            int size = ids.length * 2;
+            ids = Arrays.copyOf(ids, size);
+            linkTarget = Arrays.copyOf(linkTarget, size);
+            linkCost = Arrays.copyOf(linkCost, size);
+            degree = Arrays.copyOf(degree, size);
+        }
+        ids[index] = id;
+        linkTarget[index] = new int[2];
+        linkCost[index] = new double[2];
+        degree[index] = 0;
+        idKeys[i] = id;
+        idSlots[i] = index + 1;
+        if (nodeCount * 2 > idKeys.length) rehashIds();
+        structureChanged = true;
+        return index;
+    }
+
+    private void rehashIds() {
+        idKeys = new int[idKeys.length * 2];
+        idSlots = new int[idKeys.length];
+        int mask = idKeys.length - 1;
+        for (int index = 0; index < nodeCount; index++) {
+            int i = hash(ids[index], mask);
+            while (idSlots[i] != 0) i = (i + 1) & mask;
+            idKeys[i] = ids[index];
+            idSlots[i] = index + 1;
+        }
+    }
+
+    /** Number of nodes **/
+    public int getNodeCount() { return nodeCount; }
+
+    /** The id of the node with the given index **/
+    public int getId(int index) { return ids[index]; }
+
+    // ---- Links ----
+
+    private static long linkKey(int from, int to) {
+        return ((long) from << 32) | (to & 0xFFFFFFFFL);
+    }
+
+    // The slot of a link in linkKeys (or the empty slot where it would go)
+    private int linkSlot(int from, int to) {
+        long key = linkKey(from, to);
+        int mask = linkKeys.length - 1;
+        int i = hash(key, mask);
+        while (linkSlots[i] != 0 && linkKeys[i] != key) i = (i + 1) & mask;
+        return i;
+    }
+
+    /**
+     * Set the cost of the link between two nodes (by id), adding the nodes and the link if they are new
+     **/
+    public void addDestination(int fromId, int toId, double distance) {
+        int from = addNode(fromId);
+        int to = addNode(toId);
+        int slot = linkSlot(from, to);
+        if (linkSlots[slot] != 0) {
+            // Already there - just a new cost
+            int k = linkSlots[slot] - 1;
+            double old = linkCost[from][k];
+            if (old == distance) return;
+            linkCost[from][k] = distance;
+            if (!structureChanged) addPending(from, start[from] + k, distance);
+            return;
+        }
+        int k = degree[from]++;
+        if (k == linkTarget[from].length) {
+            linkTarget[from] = Arrays.copyOf(linkTarget[from], k * 2);
+            linkCost[from] = Arrays.copyOf(linkCost[from], k * 2);
+        }
+        linkTarget[from][k] = to;
+        linkCost[from][k] = distance;
+        linkKeys[slot] = linkKey(from, to);
+        linkSlots[slot] = k + 1;
+        linkCount++;
+        if (linkCount * 2 > linkKeys.length) rehashLinks();
+        structureChanged = true;
+    }
+
+    /**
+     * Remove the link between two nodes (by id)
+     * @returns true if there was one
+     **/
+    public boolean removeDestination(int fromId, int toId) {
+        int from = indexOf(fromId);
+        int to = indexOf(toId);
+        if (from < 0 || to < 0) return false;
+        int slot = linkSlot(from, to);
+        if (linkSlots[slot] == 0) return false;
+        int k = linkSlots[slot] - 1;
+        deleteLinkSlot(slot);
+
+        // Move the last link into the gap
+        int last = --degree[from];
+        if (k != last) {
+            linkTarget[from][k] = linkTarget[from][last];
+            linkCost[from][k] = linkCost[from][last];
+            linkSlots[linkSlot(from, linkTarget[from][k])] = k + 1;
+        }
+        linkCount--;
+        structureChanged = true;
+        return true;
+    }
+
+    // Empty a slot of the link table, moving later entries of the same run back so lookups still find them
+    private void deleteLinkSlot(int slot) {
+        int mask = linkKeys.length - 1;
+        int gap = slot;
+        int i = (slot + 1) & mask;
+        while (linkSlots[i] != 0) {
+            int home = hash(linkKeys[i], mask);
+            // Move it if its home is not cyclically within (gap, i]
+            if (((i - home) & mask) >= ((i - gap) & mask)) {
+                linkKeys[gap] = linkKeys[i];
+                linkSlots[gap] = linkSlots[i];
+                gap = i;
+            }
+            i = (i + 1) & mask;
+        }
+        linkSlots[gap] = 0;
+    }
+
+    private void rehashLinks() {
+        linkKeys = new long[linkKeys.length * 2];
+        linkSlots = new int[linkKeys.length];
+        for (int from = 0; from < nodeCount; from++) {
+            for (int k = 0; k < degree[from]; k++) {
+                int slot = linkSlot(from, linkTarget[from][k]);
+                linkKeys[slot] = linkKey(from, linkTarget[from][k]);
+                linkSlots[slot] = k + 1;
+            }
+        }
+    }
+
+    /** Number of links out of the node with the given id **/
+    public int getDestinationCount(int id) {
+        int index = indexOf(id);
+        return (index < 0) ? 0 : degree[index];
+    }
+
+    /** The id at the other end of the k-th link out of the node with the given id **/
+    public int getDestination(int id, int k) {
+        return ids[linkTarget[indexOf(id)][k]];
+    }
+
+    /** The cost of the k-th link out of the node with the given id **/
+    public double getDestinationCost(int id, int k) {
+        return linkCost[indexOf(id)][k];
+    }
+
+    // ---- Shortest paths ----
+
+    private void addPending(int from, int e, double w) {
+        for (int i = 0; i < pendingCount; i++) {
+            if (pendingEdge[i] == e) {
+                pendingWeight[i] = w;
+                return;
+            }
+        }
+        if (pendingCount == pendingEdge.length) {
+            pendingFrom = Arrays.copyOf(pendingFrom, pendingCount * 2);
+            pendingEdge = Arrays.copyOf(pendingEdge, pendingCount * 2);
+            pendingWeight = Arrays.copyOf(pendingWeight, pendingCount * 2);
+        }
+        pendingFrom[pendingCount] = from;
+        pendingEdge[pendingCount] = e;
+        pendingWeight[pendingCount] = w;
+        pendingCount++;
+    }
+
+    /**
+     * Calculate the shortest paths from the node with the given id to all others (from scratch)
+     **/
+    public void calculateShortestPathFromSource(int sourceId) {
+        source = addNode(sourceId);
+        laidOut = nodeCount;
+        int edges = 0;
+        for (int i = 0; i < nodeCount; i++) edges += degree[i];
+        if (start.length < nodeCount + 1) start = new int[nodeCount + 1];
+        if (target.length < edges) {
+            target = new int[edges];
+            weight = new double[edges];
+        }
+        int e = 0;
+        for (int i = 0; i < nodeCount; i++) {
+            start[i] = e;
+            System.arraycopy(linkTarget[i], 0, target, e, degree[i]);
+            System.arraycopy(linkCost[i], 0, weight, e, degree[i]);
+            e += degree[i];
+        }
+        start[nodeCount] = e;
+        spf.compute(nodeCount, start, target, weight, source);
+        if (equalCostTolerance >= 0) spf.computeNextHops(equalCostTolerance);
+        structureChanged = false;
+        pendingCount = 0;
+    }
+
+    /**
+     * Bring the shortest paths from the node with the given id up to date with whatever changed since the last calculation
+     * @returns SKIPPED, INCREMENTAL or FULL depending on how much work that took
+     **/
+    public int recalculate(int sourceId) {
+        if (structureChanged || indexOf(sourceId) != source || !spf.isComputedOn(start)) {
+            calculateShortestPathFromSource(sourceId);
+            return FULL;
+        }
+        if (pendingCount == 0) return SKIPPED;
+
+        int result;
+        if (pendingCount > laidOut / 4) {
+            // So much changed that starting over is cheaper
+            for (int i = 0; i < pendingCount; i++) weight[pendingEdge[i]] = pendingWeight[i];
+            spf.compute(laidOut, start, target, weight, source);
+            result = FULL;
+        } else {
+            for (int i = 0; i < pendingCount; i++) {
+                int e = pendingEdge[i];
+                double old = weight[e];
+                weight[e] = pendingWeight[i];
+                spf.updateEdge(pendingFrom[i], e, old);
+            }
+            result = INCREMENTAL;
+        }
+        pendingCount = 0;
+        if (equalCostTolerance >= 0) spf.computeNextHops(equalCostTolerance);
+        return result;
+    }
+
+    // Index of a node in the last calculation, or -1 if it wasn't in it
+    private int calculated(int id) {
+        int index = indexOf(id);
+        return (source < 0 || index < 0 || index >= laidOut) ? -1 : index;
+    }
+
+    /** Once calculated, the distance to the node with the given id (POSITIVE_INFINITY if there is no path) **/
+    public double getDistance(int id) {
+        int index = calculated(id);
+        return (index < 0) ? Double.POSITIVE_INFINITY : spf.getDistance(index);
+    }
+
+    /** Once calculated, the id of the first node after the source on the way to the given one, or -1 if there is no path **/
+    public int getFirstHop(int id) {
+        int index = calculated(id);
+        if (index < 0 || spf.getFirstHop(index) < 0) return -1;
+        return ids[spf.getFirstHop(index)];
+    }
+
+    /** Once calculated, how many first hops start a shortest path to the node with the given id **/
+    public int getNextHopCount(int id) {
+        int index = calculated(id);
+        return (index < 0) ? 0 : spf.getNextHopCount(index);
+    }
+
+    /** Once calculated, the id of the i-th of those first hops **/
+    public int getNextHop(int id, int i) {
+        return ids[spf.getNextHop(indexOf(id), i)];
+    }
+
+    /** The id of the source of the last calculation, or -1 if there wasn't one **/
+    public int getSource() {
+        return (source < 0) ? -1 : ids[source];
+    }
+
+    // This outputs the calculated routes as a string
+    @Override
+    public String toString() {
+        if (source < 0) return "No routes calculated";
+        StringBuilder result = new StringBuilder("Calculated routes from " + ids[source] + ":\n");
+        int[] path = new int[laidOut];
+        for (int v = 0; v < laidOut; v++) {
+            if (v == source || spf.getPredecessor(v) < 0) continue;
+            int length = 0;
+            for (int u = v; u != source; u = spf.getPredecessor(u)) path[length++] = u;
+            result.append(ids[v]).append(": ").append(spf.getDistance(v)).append(", path = { ");
+            while (length > 0) result.append(ids[path[--length]]).append(" ");
+            result.append("} \n");
+        }
+        return result.toString();
+    }
+}
@@ -0,0 +1,95 @@
+/***************
+ * LatencyHistogram
+ *
+ * A fixed-size, log-bucketed histogram of latencies (in milliseconds), in the spirit of HdrHistogram.
+ * Values below 64 get a bucket each; above that every power-of-two range is split into 32 equal
+ * buckets, so any value is recorded to within about 3% no matter how large.  The memory used never
+ * grows, however many values are recorded.
+ ***************/
+import java.util.Arrays;
+
+public class LatencyHistogram {
+    private static final int SUB_BITS = 5;
+    private static final int SUB_COUNT = 1 << SUB_BITS;                // Buckets per power of two
+    private static final int BUCKETS = (64 - SUB_BITS) * SUB_COUNT;    // Enough for any non-negative long
+
+    private long[] counts;
+    private long total;   // Number of values recorded
+    private long sum;     // Sum of the values (for the mean)
+    private long min;
+    private long max;
+
+    public LatencyHistogram() {
+        counts = new long[BUCKETS];
+        total = 0;
+        sum = 0;
+        min = Long.MAX_VALUE;
+        max = 0;
+    }
+
+    /**
+     * Copy another histogram
+     **/
+    public LatencyHistogram(LatencyHistogram other) {
+        counts = Arrays.copyOf(other.counts, BUCKETS);
+        total = other.total;
+        sum = other.sum;
+        min = other.min;
+        max = other.max;
+    }
+
+    // Which bucket a value goes in
+    private static int bucketOf(long value) {
+        if (value < 2 * SUB_COUNT) return (int) value;
+        int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BITS;
+        return (shift + 1) * SUB_COUNT + (int) (value >>> shift) - SUB_COUNT;
+    }
+
+    // The middle of the range of values a bucket holds
+    private static long valueOf(int bucket) {
+        if (bucket < 2 * SUB_COUNT) return bucket;
+        int shift = bucket / SUB_COUNT - 1;
+        long lowest = (long) (bucket % SUB_COUNT + SUB_COUNT) << shift;
+        return lowest + ((1L << shift) >> 1);
+    }
+
+    /** Record one latency (negative values count as 0) **/
+    public void record(long value) {
+        if (value < 0) value = 0;
+        counts[bucketOf(value)]++;
+        total++;
+        sum += value;
+        if (value < min) min = value;
+        if (value > max) max = value;
+    }
+
+    /** Add everything recorded in another histogram to this one **/
+    public void add(LatencyHistogram other) {
+        for (int i = 0; i < BUCKETS; i++) counts[i] += other.counts[i];
+        total += other.total;
+        sum += other.sum;
+        if (other.min < min) min = other.min;
+        if (other.max > max) max = other.max;
+    }
+
+    public long getCount() { return total; }
+    public long getMin() { return total == 0 ? 0 : min; }
+    public long getMax() { return max; }
+    public double getMean() { return total == 0 ? 0.0 : (double) sum / total; }
+
+    /**
+     * The value below which the given percentage of the recorded values fall
+     * @param percentile 0-100 (e.g. 99.9)
+     **/
+    public long getPercentile(double percentile) {
+        if (total == 0) return 0;
+        long target = (long) Math.ceil(percentile / 100.0 * total);
+        if (target < 1) target = 1;
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts[i];
+            if (seen >= target) return Math.min(valueOf(i), max);
+        }
+        return max;
+    }
+}
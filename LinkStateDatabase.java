@@ -0,0 +1,157 @@
+/***************
+ * LinkStateDatabase
+ *
+ * A router's link-state database when the routers share LinkStateRecords: just an array of
+ * references to the (immutable, shared) records, indexed by origin, plus the arrays the shortest
+ * path engine runs over.  Nothing per link is boxed or copied, so N routers holding the same
+ * records cost N arrays of references rather than N copies of the whole network.
+ *
+ * Like IntGraph, it only recalculates what the changes since the last calculation need:
+ * nothing, the paths affected by changed costs, or everything if links came or went.
+ ***************/
+import java.util.Arrays;
+
+public class LinkStateDatabase {
+    private LinkStateRecord.Registry registry;  // Where the records' indices come from
+    private LinkStateRecord[] records;  // Latest record from each origin (by index), null if none yet
+    private SpfEngine spf;
+    private double equalCostTolerance;  // Passed on to SpfEngine.computeNextHops (negative = single path)
+
+    // The records laid out for the engine at the last full calculation
+    private int nodeCount;
+    private int[] start;
+    private int[] target;
+    private double[] weight;
+    private int sourceIndex;
+
+    private boolean structureChanged;   // Links came or went since the last calculation
+    private int pendingCount;           // Costs that changed since (edge, origin and new cost)
+    private int[] pendingFrom;
+    private int[] pendingEdge;
+    private double[] pendingWeight;
+
+    public LinkStateDatabase(LinkStateRecord.Registry registry, SpfEngine spf, double equalCostTolerance) {
+        this.registry = registry;
+        this.spf = spf;
+        this.equalCostTolerance = equalCostTolerance;
+        records = new LinkStateRecord[16];
+        nodeCount = 0;
+        start = new int[1];
+        target = new int[0];
+        weight = new double[0];
+        sourceIndex = -1;
+        structureChanged = true;
+        pendingCount = 0;
+        pendingFrom = new int[8];
+        pendingEdge = new int[8];
+        pendingWeight = new double[8];
+    }
+
+    /**
+     * Store a record (replacing any older one from the same origin)
+     * @returns true if it changed anything
+     **/
+    public boolean put(LinkStateRecord record) {
+        int o = record.getOriginIndex();
+        if (o >= records.length) records = Arrays.copyOf(records, Math.max(o + 1, records.length * 2));
+        LinkStateRecord old = records[o];
+        if (old == record) return false;
+        records[o] = record;
+        if (structureChanged || old == null || o >= nodeCount || !old.sameLinks(record)) {
+            structureChanged = true;
+            return true;
+        }
+        // Same links - remember which costs changed
+        for (int k = 0; k < record.getLinkCount(); k++) {
+            if (record.getCost(k) != old.getCost(k)) addPending(o, start[o] + k, record.getCost(k));
+        }
+        return true;
+    }
+
+    private void addPending(int from, int e, double w) {
+        for (int i = 0; i < pendingCount; i++) {
+            if (pendingEdge[i] == e) {
+                pendingWeight[i] = w;
+                return;
+            }
+        }
+        if (pendingCount == pendingEdge.length) {
+            pendingFrom = Arrays.copyOf(pendingFrom, pendingCount * 2);
+            pendingEdge = Arrays.copyOf(pendingEdge, pendingCount * 2);
+            pendingWeight = Arrays.copyOf(pendingWeight, pendingCount * 2);
+        }
+        pendingFrom[pendingCount] = from;
+        pendingEdge[pendingCount] = e;
+        pendingWeight[pendingCount] = w;
+        pendingCount++;
+    }
+
+    /**
+     * Bring the shortest paths from the given router up to date
+     * @returns IntGraph.SKIPPED, IntGraph.INCREMENTAL or IntGraph.FULL depending on how much work that took
+     **/
+    public int recalculate(int sourceNsap) {
+        int source = registry.indexOf(sourceNsap);
+        int result;
+        if (structureChanged || source != sourceIndex || !spf.isComputedOn(start)) {
+            layOut();
+            sourceIndex = source;
+            spf.compute(nodeCount, start, target, weight, source);
+            result = IntGraph.FULL;
+        } else if (pendingCount == 0) {
+            return IntGraph.SKIPPED;
+        } else if (pendingCount > nodeCount / 4) {
+            // So much changed that starting over is cheaper
+            for (int i = 0; i < pendingCount; i++) weight[pendingEdge[i]] = pendingWeight[i];
+            spf.compute(nodeCount, start, target, weight, source);
+            result = IntGraph.FULL;
+        } else {
+            for (int i = 0; i < pendingCount; i++) {
+                int e = pendingEdge[i];
+                double old = weight[e];
+                weight[e] = pendingWeight[i];
+                spf.updateEdge(pendingFrom[i], e, old);
+            }
+            result = IntGraph.INCREMENTAL;
+        }
+        structureChanged = false;
+        pendingCount = 0;
+        if (equalCostTolerance >= 0) spf.computeNextHops(equalCostTolerance);
+        return result;
+    }
+
+    // Lay the records out as arrays for the engine - one node per known NSAP
+    private void layOut() {
+        nodeCount = registry.getIndexCount();
+        int edgeCount = 0;
+        for (LinkStateRecord r : records) {
+            if (r != null) edgeCount += r.getLinkCount();
+        }
+        if (start.length < nodeCount + 1) start = new int[nodeCount + 1];
+        if (target.length < edgeCount) {
+            target = new int[edgeCount];
+            weight = new double[edgeCount];
+        }
+        int e = 0;
+        for (int i = 0; i < nodeCount; i++) {
+            start[i] = e;
+            LinkStateRecord r = (i < records.length) ? records[i] : null;
+            if (r == null) continue;
+            for (int k = 0; k < r.getLinkCount(); k++) {
+                target[e] = r.getNeighbor(k);
+                weight[e] = r.getCost(k);
+                e++;
+            }
+        }
+        start[nodeCount] = e;
+    }
+
+    /** Number of nodes in the last calculation (indices 0..n-1, see LinkStateRecord.Registry.nsapOf) **/
+    public int getNodeCount() { return nodeCount; }
+
+    /** Number of first hops that start a shortest path to the node with the given index **/
+    public int getNextHopCount(int index) { return spf.getNextHopCount(index); }
+
+    /** The index of the i-th of those first hops **/
+    public int getNextHop(int index, int i) { return spf.getNextHop(index, i); }
+}
@@ -0,0 +1,100 @@
+/***************
+ * LinkStateRecord
+ *
+ * One router's link-state advertisement in compact, immutable form: its neighbors and the cost to
+ * each, as primitive arrays.  Routers in the same network share these instead of each keeping its own maps.
+ *
+ * Every NSAP seen gets a small dense index (from the network's Registry, shared by its routers), and
+ * records name their neighbors by index, so a router can lay them out for SPF without any lookups.
+ * Records are interned: if a router advertises exactly what it advertised last time, it gets the
+ * previous record back, and if only the costs changed the new record shares the old neighbor array.
+ * So an unchanged advertisement can be spotted by reference, and one whose links are the same by
+ * comparing neighbor arrays by reference.
+ ***************/
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+public final class LinkStateRecord {
+    /**
+     * The NSAP indices and latest records of one network - made by its router generator and handed
+     * to each of its routers, so separate networks (or runs) in the same JVM never mix
+     **/
+    public static final class Registry {
+        private final ConcurrentHashMap<Integer, Integer> indices = new ConcurrentHashMap<Integer, Integer>();
+        private volatile int[] nsaps = new int[16];  // NSAP for each index
+        private volatile int indexCount = 0;
+
+        // The latest record of each origin (by index) - what new records are interned against
+        private final ConcurrentHashMap<Integer, LinkStateRecord> latest = new ConcurrentHashMap<Integer, LinkStateRecord>();
+
+        /**
+         * The record for a router's current link table (NSAP -> cost).  Only the router itself
+         * should make records for its own NSAP.
+         **/
+        public LinkStateRecord record(int origin, Map<Integer, Double> links) {
+            int originIndex = indexOf(origin);
+            int[] neighbors = new int[links.size()];
+            int count = 0;
+            for (int nsap : links.keySet()) neighbors[count++] = indexOf(nsap);
+            Arrays.sort(neighbors);
+            double[] costs = new double[count];
+            for (int i = 0; i < count; i++) costs[i] = links.get(nsapOf(neighbors[i]));
+
+            LinkStateRecord previous = latest.get(originIndex);
+            if (previous != null && Arrays.equals(previous.neighbors, neighbors)) {
+                if (Arrays.equals(previous.costs, costs)) return previous;  // Nothing changed
+                neighbors = previous.neighbors;  // Same links, share them
+            }
+            LinkStateRecord record = new LinkStateRecord(origin, originIndex, neighbors, costs);
+            latest.put(originIndex, record);
+            return record;
+        }
+
+        /** The index of an NSAP (given one the first time it is seen) **/
+        public int indexOf(int nsap) {
+            Integer index = indices.get(nsap);
+            if (index != null) return index;
+            synchronized (indices) {
+                index = indices.get(nsap);
+                if (index != null) return index;
+                int i = indexCount;
+                if (i == nsaps.length) nsaps = Arrays.copyOf(nsaps, i * 2);
+                nsaps[i] = nsap;
+                indexCount = i + 1;
+                indices.put(nsap, i);
+                return i;
+            }
+        }
+
+        /** The NSAP with the given index **/
+        public int nsapOf(int index) { return nsaps[index]; }
+
+        /** How many NSAPs have an index so far **/
+        public int getIndexCount() { return indexCount; }
+
+        /** How many distinct records are current (one per advertising router) **/
+        public int getLatestCount() { return latest.size(); }
+    }
+
+    private final int origin;         // NSAP of the router advertising
+    private final int originIndex;    // Its index
+    private final int[] neighbors;    // Indices of its neighbors (ascending)
+    private final double[] costs;     // Cost to each of them
+
+    private LinkStateRecord(int origin, int originIndex, int[] neighbors, double[] costs) {
+        this.origin = origin;
+        this.originIndex = originIndex;
+        this.neighbors = neighbors;
+        this.costs = costs;
+    }
+
+    public int getOrigin() { return origin; }
+    public int getOriginIndex() { return originIndex; }
+    public int getLinkCount() { return neighbors.length; }
+    public int getNeighbor(int i) { return neighbors[i]; }
+    public double getCost(int i) { return costs[i]; }
+
+    /** True if the other record has exactly the same links (maybe different costs) **/
+    public boolean sameLinks(LinkStateRecord other) { return other.neighbors == neighbors; }
+}
@@ -5,212 +5,303 @@
  * Modified by: Matthew Hendrickson and Andrew DePass
  * Represents a router that uses a Distance Vector Routing algorithm.
  ***************/
+import java.io.PrintStream;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
 
 //Each router has a graph that it generates via pinging its neighbors. 
 
 public class LinkStateRouter extends Router {
 	// A generator for the given LinkStateRouter class
 	public static class Generator extends Router.Generator {
+		private LinkStateRecord.Registry registry; //The records this generator's routers share, or null if not sharing
+		private Stats stats = new Stats(); //The statistics of this generator's routers (one network)
+
+		public Generator() {
+			this(false);
+		}
+
+		//With sharedDatabase the routers keep their link-state database as shared, immutable LinkStateRecords
+		//(shared only between the routers made by this generator - one network)
+		public Generator(boolean sharedDatabase) {
+			this.registry = sharedDatabase ? new LinkStateRecord.Registry() : null;
+		}
+
 		public Router createRouter(int id, NetworkInterface nic) {
-			return new LinkStateRouter(id, nic);
+			return new LinkStateRouter(id, nic, registry, stats);
 		}
+
+		public void displayStats(PrintStream out, long elapsed) {
+			out.println("   SPF runs full/incremental/skipped: " + stats.fullSpfRuns.sum() + " / "
+					+ stats.incrementalSpfRuns.sum() + " / " + stats.skippedSpfRuns.sum());
+			long control = stats.lsaSent.sum() + stats.pingsSent.sum();
+			out.println("   Link-state adverts sent/suppressed: " + stats.lsaSent.sum() + " / " + stats.lsaSuppressed.sum());
+			out.println("   Control messages (per second): " + control + " ("
+					+ (elapsed > 0 ? control * 1000.0 / elapsed : 0.0) + ")");
+			long links = stats.linkCount.sum();
+			if (links > 0) {
+				double mean = (double) stats.dataSent.sum() / links;
+				double cv = (mean > 0) ? Math.sqrt(Math.max(0, (double) stats.dataSentSquares.sum() / links - mean * mean)) / mean : 0;
+				out.println("   Data packets per link mean/max (cv): " + mean + " / " + stats.maxLinkLoad.get() + " (" + cv + ")");
+				out.println("   Data packets with several equal-cost links: " + stats.multipathPackets.sum());
+			}
+			if (registry != null) out.println("   Shared link-state records: " + registry.getLatestCount());
+		}
+	}
+
+	//The statistics of one network's routers (all of them together)
+	static class Stats {
+		//How often the routers had to recalculate their shortest paths
+		final LongAdder fullSpfRuns = new LongAdder();
+		final LongAdder incrementalSpfRuns = new LongAdder();
+		final LongAdder skippedSpfRuns = new LongAdder();
+
+		//Control traffic
+		final LongAdder lsaSent = new LongAdder(); //Graph packets put on a link, including re-floods
+		final LongAdder lsaSuppressed = new LongAdder(); //Graph packets dropped as duplicates or out of date
+		final LongAdder pingsSent = new LongAdder(); //Ping packets put on a link
+
+		//Data traffic per link - shows how evenly it is spread
+		final LongAdder linkCount = new LongAdder(); //Outgoing links of all routers
+		final LongAdder dataSent = new LongAdder(); //Data packets put on a link
+		final LongAdder dataSentSquares = new LongAdder(); //Sum over links of the square of their data packet count
+		final AtomicLong maxLinkLoad = new AtomicLong(0); //Most data packets put on one link
+		final LongAdder multipathPackets = new LongAdder(); //Data packets that had more than one equal-cost link
 	}
+	
+	public static final double EQUAL_COST_TOLERANCE = 0; //Paths this fraction longer than the shortest still count as equal
+	public static final double CHANGE_THRESHOLD = 0.1; //How much (fraction) a link's ping time must change before its cost is updated
+	public static final double MIN_CHANGE = 1; //... and by more than this (ms) - the clock's resolution
 
 	Debug debug;
 	public HashMap<Integer, Double> linkTable; //This stores a table of the links the packets can be sent on
-	public Map<Integer, HashMap<Integer, Double>> networkTable; //this stores a table of the entire network shich is sent to every packet
+	public Map<Integer, HashMap<Integer, Double>> networkTable; //this stores a table of the entire network shich is sent to every packet (null when sharing records)
 	public static final int delay = 1000; //This variable holds the delay which is accounted for in our time calculations for reporting
-	public Graph graph; //This graph is used to hold the map of the network and conduct shortest distance calculations
-	public Node router; //This is an instance of a router
+	public IntGraph graph; //This graph is used to hold the map of the network (by NSAP) and conduct shortest distance calculations (null when sharing records)
+	private SpfEngine spf; //The shortest path engine - kept between graphs so its working memory is reused
 	public final int tableHopCount = 15; //This limits the travel of the Graph packet in the network
 	int flip;//this variable is used in conditionals to ensure that creation and dispersal of the graph packet happens in sequence
+	long nextPingTime; //The time (network clock) at which the next step of the ping/flood/calculate cycle happens
+	private HashMap<Integer, Integer> linkIndex; //The index of the outgoing link to each neighbor
+	private volatile ForwardingTable fib; //Destination NSAP -> outgoing link, compiled from the last graph calculation
+	private boolean linkTableChanged; //Our own link costs changed since the graph was last updated
+	private HashSet<Integer> changedSources; //Routers whose link table changed since the graph was last updated
+	private int sequence; //Sequence number of our last graph packet
+	private HashMap<Integer, Integer> newestSeen; //The newest graph packet sequence number seen from each router
+	private AtomicLongArray linkLoad; //Data packets sent on each outgoing link
+	private LinkStateDatabase lsdb; //Shared link-state records (instead of networkTable and graph), or null if not sharing
+	private LinkStateRecord.Registry registry; //Where the shared records come from (null if not sharing)
+	private Stats stats; //Where this router's statistics go (its network's)
 
 	public LinkStateRouter(int nsap, NetworkInterface nic) {
+		this(nsap, nic, null);
+	}
+
+	//With a registry the router keeps shared LinkStateRecords from it instead of its own networkTable and graph
+	public LinkStateRouter(int nsap, NetworkInterface nic, LinkStateRecord.Registry registry) {
+		this(nsap, nic, registry, new Stats());
+	}
+
+	LinkStateRouter(int nsap, NetworkInterface nic, LinkStateRecord.Registry registry, Stats stats) {
 		super(nsap, nic);
+		this.stats = stats;
 		linkTable = new HashMap<Integer, Double>();
-		networkTable = new HashMap<Integer, HashMap<Integer, Double>>();
-		graph = new Graph();
-		router = new Node(String.valueOf(nsap));
+		spf = new SpfEngine();
+		this.registry = registry;
+		if (registry != null) {
+			lsdb = new LinkStateDatabase(registry, spf, EQUAL_COST_TOLERANCE);
+		} else {
+			networkTable = new HashMap<Integer, HashMap<Integer, Double>>();
+			graph = new IntGraph(spf);
+			graph.setEqualCostTolerance(EQUAL_COST_TOLERANCE);
+			graph.addNode(nsap);
+			changedSources = new HashSet<Integer>();
+		}
+		linkTableChanged = false;
+		sequence = 0;
+		newestSeen = new HashMap<Integer, Integer>();
 		debug = Debug.getInstance(); // For debugging!
 		flip = 0;
+		nextPingTime = nic.currentTimeMillis();
+		linkIndex = new HashMap<Integer, Integer>();
+		ArrayList<Integer> outLinks = nic.getOutgoingLinks();
+		for (int i = 0; i < outLinks.size(); i++) {
+			linkIndex.putIfAbsent(outLinks.get(i), i);
+		}
+		fib = compileForwardingTable(); //Until the first calculation we can only reach our neighbors
+		linkLoad = new AtomicLongArray(outLinks.size());
+		stats.linkCount.add(outLinks.size());
 	}
 
-	public void run() {
+	protected long nextTimerDeadline() {
+		return nextPingTime;
+	}
 
-		long nextPingTime = System.currentTimeMillis();
-		while (true) {
+	protected boolean process() {
+		
+		// See if there is anything to send out - take the whole batch off the NIC
+		int sent = nic.drainTransmit(toSend, BATCH_SIZE);
+		
+		// Send a ping every delay, and update our graph
+		if (nextPingTime <= nic.currentTimeMillis() && flip == 0) {
 			
-			boolean process = false;
-
-			// See if there is anything to process
-			NetworkInterface.TransmitPair toSend = nic.getTransmit();
-
-			// NetworkInterface.TransmitPair toSend = null;
-			if (toSend != null) {
-				// There is something to send out
-				process = true;
-				debug.println(3, "(LinkStateRouter.run): I am being asked to transmit: " + toSend.data
-						+ " to the destination: " + toSend.destination);
-				route(nsap, new Packet(nsap, toSend.destination, tableHopCount, toSend.data));
-			}
+			//Send pings to all of our neighbors
+			floodPingPackets();
 			
-			// Send a ping every delay, and update our graph
-			if (nextPingTime <= System.currentTimeMillis() && flip == 0) {
-				
-				//Send pings to all of our neighbors
-				floodPingPackets();
-				
-				nextPingTime = System.currentTimeMillis() + delay;
-				flip++;
-			}else if(nextPingTime <= System.currentTimeMillis() && flip == 1) {
-				
-				//Send graph packets to everyone 
-				floodGraphPackets();
-				
-				nextPingTime = System.currentTimeMillis() + delay;
-				flip++;
-			}else if(nextPingTime <= System.currentTimeMillis() && flip == 2) {
-				
-				//Create a new graph
-				graph = new Graph();
-				
-				//Our current router
-				router = new Node(nsap);
-				graph.addNode(router);
-				
-				
-				
-				debug.println(2, router.getName() + ": ");
-				
-				//All of our direct destinations
-				linkTable.forEach((routerInt, distance) -> {
-					Node tableNode = graph.addNode(new Node(routerInt));
-					router.addDestination(tableNode, distance);
-					//tableNode.addDestination(router, distance);
-					debug.println(2, "	" + routerInt + " - " + distance);
-					//System.out.println(distance);
-					
-				});
-				
-				
-				networkTable.forEach((routerHeadInt, map) -> {
-					//check and see if we already have a node with this name, if we do, then just use the one we already have instead of creating a new one
-					Node headerNode = graph.addNode(new Node(routerHeadInt));
+			nextPingTime = nic.currentTimeMillis() + delay;
+			flip++;
+		}else if(nextPingTime <= nic.currentTimeMillis() && flip == 1) {
+			
+			//Send graph packets to everyone 
+			floodGraphPackets();
+			
+			nextPingTime = nic.currentTimeMillis() + delay;
+			flip++;
+		}else if(nextPingTime <= nic.currentTimeMillis() && flip == 2) {
+			
+			//Bring our graph up to date with whatever changed since the last time
+			debug.println(2, nsap + ": ");
+			if (lsdb != null) {
+				//The shared records already hold everyone else's links
+				if (linkTableChanged) lsdb.put(registry.record(nsap, linkTable));
+				linkTableChanged = false;
+			} else {
+				if (linkTableChanged) {
+					//All of our direct destinations
+					updateLinks(nsap, linkTable);
+					linkTableChanged = false;
+				}
+				for (int routerHeadInt : changedSources) {
 					debug.println(2, "		" + routerHeadInt + ": ");
-					for (Map.Entry<Integer,Double> entry : map.entrySet()) {
-						int routerInt = entry.getKey();
-						double distance = entry.getValue();
-						
-						Node tableNode = graph.addNode(new Node(routerInt));
-						headerNode.addDestination(tableNode, distance);
-						debug.println(2, "			" + routerInt + " - " + distance);
-						
-					}
-
-				});
-				
-				debug.println(2, "");
-				debug.println(2, "");
-				debug.println(2, "");
-				//Actually calculate our graph
-				graph.calculateShortestPathFromSource(graph, router);
-				debug.println(1, graph.toString());
-				//debug.println(2, router.output());
-				nextPingTime = System.currentTimeMillis() + delay;
-				flip = 0;
+					updateLinks(routerHeadInt, networkTable.get(routerHeadInt));
+				}
+				changedSources.clear();
+			}
+			debug.println(2, "");
+			
+			//Actually calculate our graph - only as much as the changes require
+			int work = (lsdb != null) ? lsdb.recalculate(nsap) : graph.recalculate(nsap);
+			if (work == IntGraph.SKIPPED) {
+				stats.skippedSpfRuns.increment();
+			} else {
+				if (work == IntGraph.FULL) stats.fullSpfRuns.increment();
+				else stats.incrementalSpfRuns.increment();
+				fib = compileForwardingTable();
+				if (debug.getLevel() >= 1) debug.println(1, (lsdb != null) ? nsap + " routes: " + fib : graph.toString());
 			}
+			nextPingTime = nic.currentTimeMillis() + delay;
+			flip = 0;
+		}
 
+		// Anything to route through - or it might have arrived at destination
+		int routed = nic.drainReceived(toRoute, BATCH_SIZE);
+		return sent + routed > 0;
+	}
 
-			NetworkInterface.ReceivePair toRoute = nic.getReceived();
-
-			if (toRoute != null) {
-				// There is something to route through - or it might have arrived at destination
-				process = true;
-
-
-				//Procedure when what needs to be routed is a graph packet
-				if (toRoute.data instanceof GraphPacket) {
-					
-					GraphPacket p = (GraphPacket) toRoute.data; 
-					
-					//If the hopcount of the data is greater than zero the graph packet is broadcasted across the network
-					if(p.hopCount > 0) {
-						p.hopCount--;
-						floodRoute(nsap, p);
-					}
-					
-					networkTable.put(p.source, p.linkTable); //The instance of the graphpacket is added to the greater network table.
-					
-					
-				//Procedure when what needs to be routed is a ping packet	
-				}else if (toRoute.data instanceof PingPacket) {
-					// We process our ping data
-					PingPacket p = (PingPacket) toRoute.data;
-
-					//if the ping packet is received we calculate the time taken and store it in the link table.
-					if (p.isRecieved() && p.dest == nsap) {
-						
-						debug.println(4, nsap + " successfully sent and recieved a ping to " + p.source);
-
-						double timeTaken = (double) ((System.currentTimeMillis() - p.getStartTime()) / 2);
-
-						debug.println(4,
-								"(LinkStateRouter.run): PingPacket has arrived!  Reporting to the NIC - for accounting purposes!"
-										+ " IP Address: " + nic.getNSAP() + "link from which it was sent is: "
-										+ toRoute.originator + " time taken: " + timeTaken);
-
-						linkTable.put(p.source, timeTaken);
-
-						// If the packet reaches its destination, it will be returned to the sender
-					} else if (p.dest == nsap) {
-						p.recieved();
-						
-						int temp = p.dest;
-						p.dest = p.source;
-						p.source = temp;
-						p.hopCount = tableHopCount;
-						
-						debug.println(4, nsap + " Returning a ping to sender: " + p.dest); // Identifies the link to send it back out on.
-
-						route(nsap, p);
-
-					}else {
-						p.hopCount--;
-						route(nsap, p);
-					}
-
-				//Procedure when what needs to be routed is a packet.
-				} else if (toRoute.data instanceof Packet) {
-					Packet p = (Packet) toRoute.data;
-
-					//This is the case where the packet made it to its destination
-					if (p.dest == nsap) {
-						//Belown informs the network for statistics tracking purposes
-						debug.println(4,
-								"(LinkStateRouter.run): Packet has arrived!  Reporting to the NIC - for accounting purposes!");
-						debug.println(6, "(LinkStateRouter.run): Payload: " + p.payload);
-						nic.trackArrivals(p.payload);
-
-					//If the packet has not made it to its destination it is sent back to its originator 
-					} else { 
-						route(nsap, p);
-					}
-				}
+	private RingBuffer.Consumer toSend = this::transmitPacket;
+	private RingBuffer.Consumer toRoute = this::receivePacket;
 
+	//There is something to send out
+	private void transmitPacket(int destination, Object data) {
+		debug.println(3, "(LinkStateRouter.run): I am being asked to transmit: " + data
+				+ " to the destination: " + destination);
+		route(nsap, new Packet(nsap, destination, tableHopCount, data));
+	}
 
-				// If nothing has happened the thread is put to sleep
-				if (!process) {
-					try {
-						Thread.sleep(1);
-					} catch (InterruptedException e) {
-					}
+	//There is something to route through - or it might have arrived at destination
+	private void receivePacket(int originator, Object data) {
+		//Procedure when what needs to be routed is a graph packet
+		if (data instanceof GraphPacket) {
+			
+			GraphPacket p = (GraphPacket) data; 
+			
+			//Drop our own graph packets coming back, and anything we have already seen (or something newer from the same router)
+			Integer seen = newestSeen.get(p.source);
+			if (p.source == nsap || (seen != null && p.sequence <= seen)) {
+				stats.lsaSuppressed.increment();
+				return;
+			}
+			newestSeen.put(p.source, p.sequence);
+			
+			//If the hopcount of the data is greater than zero the graph packet is broadcasted across the network
+			//(as a new packet - the one we got is shared with the other routers it was sent to)
+			if(p.hopCount > 0) {
+				floodRoute(originator, p.copy(p.hopCount - 1));
+			}
+			
+			//The instance of the graphpacket is added to the greater network table (our own links we know first hand)
+			if (lsdb != null) {
+				if (p.record != null) lsdb.put(p.record);
+				return;
+			}
+			HashMap<Integer, Double> old = networkTable.put(p.source, p.linkTable);
+			if (!p.linkTable.equals(old)) changedSources.add(p.source);
+			
+			
+		//Procedure when what needs to be routed is a ping packet	
+		}else if (data instanceof PingPacket) {
+			// We process our ping data
+			PingPacket p = (PingPacket) data;
+
+			//if the ping packet is received we calculate the time taken and store it in the link table.
+			if (p.isRecieved() && p.dest == nsap) {
+				
+				debug.println(4, nsap + " successfully sent and recieved a ping to " + p.source);
+
+				double timeTaken = (double) ((nic.currentTimeMillis() - p.getStartTime()) / 2);
+
+				debug.println(4,
+						"(LinkStateRouter.run): PingPacket has arrived!  Reporting to the NIC - for accounting purposes!"
+								+ " IP Address: " + nic.getNSAP() + "link from which it was sent is: "
+								+ originator + " time taken: " + timeTaken);
+
+				//Ping times jitter every cycle - only a real change is worth re-advertising (and recalculating for)
+				Double old = linkTable.get(p.source);
+				if (old == null || hasChanged(old, timeTaken)) {
+					linkTable.put(p.source, timeTaken);
+					linkTableChanged = true;
 				}
+
+				// If the packet reaches its destination, it will be returned to the sender
+			} else if (p.dest == nsap) {
+				p.recieved();
+				
+				int temp = p.dest;
+				p.dest = p.source;
+				p.source = temp;
+				p.hopCount = tableHopCount;
+				
+				debug.println(4, nsap + " Returning a ping to sender: " + p.dest); // Identifies the link to send it back out on.
+
+				route(nsap, p);
+
+			}else {
+				p.hopCount--;
+				route(nsap, p);
+			}
+
+		//Procedure when what needs to be routed is a packet.
+		} else if (data instanceof Packet) {
+			Packet p = (Packet) data;
+
+			//This is the case where the packet made it to its destination
+			if (p.dest == nsap) {
+				//Belown informs the network for statistics tracking purposes
+				debug.println(4,
+						"(LinkStateRouter.run): Packet has arrived!  Reporting to the NIC - for accounting purposes!");
+				debug.println(6, "(LinkStateRouter.run): Payload: " + p.payload);
+				nic.trackArrivals(p.payload);
+
+			//If the packet has not made it to its destination it is sent back to its originator 
+			} else { 
+				route(nsap, p);
 			}
 		}
 	}
@@ -221,8 +312,9 @@ public class LinkStateRouter extends Router {
 	//This is the method for flooding ping packets across the network
 	private void floodPingPackets() {
 		for (int randNSAP : nic.getOutgoingLinks()) {
-			PingPacket p = new PingPacket(nsap, randNSAP, System.currentTimeMillis());
+			PingPacket p = new PingPacket(nsap, randNSAP, nic.currentTimeMillis());
 			debug.println(4, nsap + " is sending a ping to " + randNSAP);
+			stats.pingsSent.increment();
 			nic.sendOnLink(nic.getOutgoingLinks().indexOf(randNSAP), p);
 		}
 		
@@ -230,57 +322,135 @@ public class LinkStateRouter extends Router {
 	
 	//This is the method for flooding a specific ping packet across the network
 	private void floodPingPackets(PingPacket p) {
-		for (int randNSAP : nic.getOutgoingLinks()) {
-			nic.sendOnLink(nic.getOutgoingLinks().indexOf(randNSAP), p);
+		int size = nic.getOutgoingLinks().size();
+		for (int i = 0; i < size; i++) {
+			stats.pingsSent.increment();
+			nic.sendOnLink(i, p);
 		}
 	}
 
 	//This is the method for flooding Graph packets across the network
 	private void floodGraphPackets() {
-		
+		//Send a copy - the receivers keep it, and our table keeps changing
+		HashMap<Integer, Double> snapshot = null;
+		LinkStateRecord record = null;
+		if (lsdb != null) record = registry.record(nsap, linkTable);
+		else snapshot = new HashMap<Integer, Double>(linkTable);
+		sequence++;
 		for (int randNSAP : nic.getOutgoingLinks()) {
-			GraphPacket p = new GraphPacket(nsap, randNSAP, tableHopCount, linkTable);
+			GraphPacket p = (record != null) ? new GraphPacket(nsap, randNSAP, tableHopCount, record, sequence)
+					: new GraphPacket(nsap, randNSAP, tableHopCount, snapshot, sequence);
+			stats.lsaSent.increment();
 			nic.sendOnLink(nic.getOutgoingLinks().indexOf(p.dest), p);
 		}
 	}
 
-	private void route(int linkOriginator, Packet p) {
-		//Send a packet to its destination as defined in the packet class
-		int destinationNSAP = graph.getCalculatedDestination(p.dest);
-		
-		boolean graphCalculatedCorrectly = (destinationNSAP != -1);
+	//Make the graph's links out of a router match a link table
+	private void updateLinks(int header, Map<Integer, Double> links) {
+		for (Map.Entry<Integer,Double> entry : links.entrySet()) {
+			graph.addDestination(header, entry.getKey(), entry.getValue());
+			debug.println(2, "			" + entry.getKey() + " - " + entry.getValue());
+		}
+		if (graph.getDestinationCount(header) > links.size()) {
+			//Some links are gone
+			ArrayList<Integer> gone = new ArrayList<Integer>();
+			for (int k = 0; k < graph.getDestinationCount(header); k++) {
+				if (!links.containsKey(graph.getDestination(header, k))) gone.add(graph.getDestination(header, k));
+			}
+			for (int dest : gone) graph.removeDestination(header, dest);
+		}
+	}
+
+	//Turn the calculated graph into a table of which link to send each destination on
+	private ForwardingTable compileForwardingTable() {
+		ForwardingTable table = new ForwardingTable(((lsdb != null) ? lsdb.getNodeCount() : graph.getNodeCount()) + linkIndex.size());
 		
-		boolean destIsNeighbor = nic.getOutgoingLinks().contains(destinationNSAP);
-			
-			// Route through the graph!
-			if (graphCalculatedCorrectly && destIsNeighbor) {
-				nic.sendOnLink(nic.getOutgoingLinks().indexOf(destinationNSAP), p);
-				
+		// Route through the graph - on any first hop that starts a shortest path (as long as it is one of our neighbors)
+		int[] links = new int[linkIndex.size()];
+		if (lsdb != null) {
+			for (int dest = 0; dest < lsdb.getNodeCount(); dest++) {
+				int count = 0;
+				for (int i = 0; i < lsdb.getNextHopCount(dest); i++) {
+					Integer link = linkIndex.get(registry.nsapOf(lsdb.getNextHop(dest, i)));
+					if (link != null) links[count++] = link;
+				}
+				if (count > 0) table.put(registry.nsapOf(dest), links, count);
 			}
-			// If we can't route through the graph, we see if we can send to a neighbor
-			else if(nic.getOutgoingLinks().contains(p.dest)){
-				nic.sendOnLink(nic.getOutgoingLinks().indexOf(p.dest), p);
-			
-			// Finally if we can't send the packet anywhere we drop the packet
-			}else {
-				
-				if(p instanceof PingPacket) {
-					debug.println(1, nsap + " Sent a return ping via flooding to " + p.dest);
-					floodPingPackets((PingPacket)p);
+		} else if (graph.getSource() != -1) {
+			for (int index = 0; index < graph.getNodeCount(); index++) {
+				int dest = graph.getId(index);
+				int count = 0;
+				for (int i = 0; i < graph.getNextHopCount(dest); i++) {
+					Integer link = linkIndex.get(graph.getNextHop(dest, i));
+					if (link != null) links[count++] = link;
 				}
-				
+				if (count > 0) table.put(dest, links, count);
 			}
+		}
+		
+		// If we can't route through the graph, we can still send straight to a neighbor
+		linkIndex.forEach((neighbor, link) -> table.putIfAbsent(neighbor, link));
+		return table;
+	}
 
+	private void route(int linkOriginator, Packet p) {
+		//Send a packet to its destination using the forwarding table from the last calculation
+		//Packets of the same flow (source and destination) always pick the same of the equal-cost links
+		ForwardingTable table = fib;
+		int link = table.get(p.dest, flowHash(p.source, p.dest));
 		
+		if (link != ForwardingTable.NO_ROUTE) {
+			if (p instanceof PingPacket) {
+				stats.pingsSent.increment();
+			} else {
+				countDataSent(link);
+				if (table.getLinkCount(p.dest) > 1) stats.multipathPackets.increment();
+			}
+			nic.sendOnLink(link, p);
+			
+		// Finally if we can't send the packet anywhere we drop the packet
+		} else if (p instanceof PingPacket) {
+			debug.println(1, nsap + " Sent a return ping via flooding to " + p.dest);
+			floodPingPackets((PingPacket)p);
+		}
 	}
 	
 	
+	//Is a new ping time different enough from the link's cost to change it?
+	private static boolean hasChanged(double before, double after) {
+		return Math.abs(after - before) > Math.max(CHANGE_THRESHOLD * before, MIN_CHANGE);
+	}
+
+	//Mix the source and destination into a hash that is the same on every router
+	private static int flowHash(int source, int dest) {
+		int h = source * 0x9E3779B9 + dest;
+		h ^= h >>> 16;
+		h *= 0x85EBCA6B;
+		return h ^ (h >>> 13);
+	}
+
+	//Count a data packet going out on a link
+	private void countDataSent(int link) {
+		long load = linkLoad.incrementAndGet(link);
+		stats.dataSent.increment();
+		stats.dataSentSquares.add(2 * load - 1); //(n)^2 - (n-1)^2
+		if (load > stats.maxLinkLoad.get()) stats.maxLinkLoad.accumulateAndGet(load, Math::max);
+	}
+
+	//The number of data packets sent on one of our links so far
+	public long getLinkLoad(int link) {
+		return linkLoad.get(link);
+	}
+
+	//Send a packet on to all our neighbors - except the one it came from and the router that sent it
 	private void floodRoute(int linkOriginator, Packet p) {
         ArrayList<Integer> outLinks = nic.getOutgoingLinks();
         int size = outLinks.size();
         for (int i = 0; i < size; i++) {
-            if (outLinks.get(i) != nsap && nic.getOutgoingLinks().indexOf(p.source) != linkOriginator) {
-                // Not the originator of this packet - so send it along!
+            int neighbor = outLinks.get(i);
+            if (neighbor != linkOriginator && neighbor != p.source) {
+                // Not where this packet came from - so send it along!
+                stats.lsaSent.increment();
                 nic.sendOnLink(i, p);
             }
         }
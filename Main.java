@@ -1,3 +1,5 @@
+import java.io.IOException;
+
 public class Main {
     public static String NETWORK_FILE = "testGraph.gqu";
     
@@ -9,22 +11,88 @@ public class Main {
         Debug.getInstance().setLevel(1);  // Set debug level for more verbose output (higher = more verbose)
         
         Network net = new Network();
+        if (args.length > 1 && args[1].equals("des")) {
+            // Discrete-event mode: runs on a virtual clock, as fast as the CPU allows
+            net.setDiscreteEventMode(true);
+            net.setRandomSeed(340);
+        }
+        Router.Execution execution = Router.Execution.THREAD;
+        if (args.length > 1 && args[1].equals("pooled")) {
+            // Share a few carrier threads between all the routers
+            execution = Router.Execution.POOLED;
+        }
         try {
-            net.loadNetwork(networkFile);
+            if (TopologyGenerator.isSpec(networkFile)) {
+                // A generated topology, e.g. scalefree:1000:2 (see TopologyGenerator.generate)
+                new TopologyGenerator(340).generate(net, networkFile);
+            } else {
+                net.loadNetwork(networkFile);
+            }
         } catch (Exception e) {
             System.err.println("Error loading network: " + networkFile);
             System.err.println(e.getMessage());
         }
 
         net.printNetwork(System.out);
-        net.createRouters(new LinkStateRouter.Generator());
+        Router.Generator gen;
+        try {
+            gen = routerGenerator(System.getProperty("router", "ls"));
+        } catch (NumberFormatException e) {
+            System.err.println("Bad router: " + System.getProperty("router") + " (expected ls, dv, flood or flood:CACHE_SIZE)");
+            gen = new LinkStateRouter.Generator();
+        }
+        net.createRouters(gen, execution);
+
+        // -Drecord=events.bin records every packet event (see PacketRecorder)
+        PacketRecorder recorder = null;
+        String recordFile = System.getProperty("record");
+        if (recordFile != null) {
+            try {
+                recorder = new PacketRecorder(recordFile);
+                net.setRecorder(recorder);
+            } catch (IOException e) {
+                System.err.println("Error opening recording: " + recordFile);
+                System.err.println(e.getMessage());
+            }
+        }
         
         try {
-            net.runNetwork(System.out, 10000, 100);
+            if (args.length > 2) {
+                // Replay recorded traffic instead of generating it (see TrafficTrace)
+                net.runTrace(System.out, args[2]);
+            } else {
+                net.runNetwork(System.out, 10000, 100);
+            }
         } catch (Exception e) {
             System.err.println("Error running the network.");
             System.err.println(e.getMessage());
         }
+        if (recorder != null) {
+            // Before exiting, or the records still buffered are lost
+            net.setRecorder(null);
+            try {
+                System.out.println("Recorded " + recorder.close() + " packet events to " + recordFile);
+            } catch (IOException e) {
+                System.err.println("Error writing recording: " + recordFile);
+                System.err.println(e.getMessage());
+            }
+        }
         System.exit(0);  // Finished, kill all the threads!
     }
+
+    /**
+     * The routers to run, as chosen by -Drouter=: "ls" (link state, the default), "dv" (distance vector),
+     * or "flood", optionally with the size of each router's seen-packet cache, e.g. "flood:1024"
+     **/
+    private static Router.Generator routerGenerator(String router) {
+        if (router.equals("dv")) return new DistanceVectorRouter.Generator();
+        if (router.equals("flood")) return new FloodRouter.Generator();
+        if (router.startsWith("flood:")) {
+            int size = Integer.parseInt(router.substring(6));
+            if (size < 1) throw new NumberFormatException();
+            return new FloodRouter.Generator(size);
+        }
+        if (!router.equals("ls")) throw new NumberFormatException();
+        return new LinkStateRouter.Generator();
+    }
 }
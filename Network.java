@@ -6,24 +6,28 @@
  ***************/
 import java.io.PrintWriter;
 import java.io.PrintStream;
-import java.io.FileReader;
-import java.io.BufferedReader;
+import java.io.IOException;
 import java.util.HashMap;
 import java.util.ArrayList;
-import java.util.List;
+import java.util.Arrays;
 import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.function.BiConsumer;
+import java.util.function.IntConsumer;
 
 public class Network {
     public class Node {
         int nsap;  // The NSAP (ID) of this node
+        int index; // Dense index of this node (0..n-1) in the compiled topology
         double probDown;   // Probability that node goes down every second (0 = never, 1 = always)
         double downTime;   // Average time node stays down (in seconds)
         double downDev;    // Standard deviation for downtime
         Router r;  // The router associated with this node
         double remainingDown;  // If >0, node is down... decrements every second until 0 and back up.
-        ArrayList<Connection> outgoingLinks;   // An ArrayList of Connections (the outgoing links in the network from this node)
-        ArrayList<Connection> incomingLinks;   // An ArrayList of Connections (the incoming links in the network to this node)
+        long nextWake;   // Discrete-event mode: simulated time the router is next scheduled to run
+        RouterPool.Task task;  // Pooled execution: the router's slot on the carrier pool
         
         public Node(int nsap, double probDown, double downTime, double downDev, Router r) {
             this.nsap = nsap;
@@ -32,8 +36,7 @@ public class Network {
             this.downDev = downDev;
             this.r = r;
             this.remainingDown = 0;
-            this.outgoingLinks = new ArrayList<Connection>();
-            this.incomingLinks = new ArrayList<Connection>();
+            this.nextWake = Long.MAX_VALUE;
         }
 
         public String toString() {
@@ -42,120 +45,150 @@ public class Network {
             res.append(nsap);
             res.append(":");
             res.append("\n   Outgoing ");
-            for (Connection c: outgoingLinks) {
-                res.append(c.destination.nsap);
-                res.append(" ");
-            }
+            forEachOutgoingLink(this, dest -> {
+                    res.append(dest);
+                    res.append(" ");
+                });
             res.append("\n   Incoming ");
-            for (Connection c: incomingLinks) {
-                res.append(c.source.nsap);
-                res.append(" ");
-            }
+            forEachIncomingLink(this, source -> {
+                    res.append(source);
+                    res.append(" ");
+                });
             return res.toString();
         }
     }
 
-    public class Connection {
-        Node source;       // The source of this link
-        Node destination;  // The destination of this link
-
-        // Used for simulating nosiy/corrupt networks
-        double meanSpeed;      // The "average" speed for this link
-        double stdSpeed;     // The standard deviation of the speed for this link
-
-        public Connection(Node source, Node destination, double meanSpeed, double stdSpeed) {
-            this.source = source;
-            this.destination = destination;
-            this.meanSpeed = meanSpeed;
-            this.stdSpeed = stdSpeed;
-        }
-
-        public synchronized boolean sendOnLink(Object packet) {
-            // Register the start of transmission on this link - for visualization
-            // TBD
-            
-            // Sleep for the average speed for this link -- simulating a delay
-            try {
-                long delay = Math.round(rand.nextGaussian()*stdSpeed + meanSpeed);
-                if (delay > 0) 
-                    Thread.sleep(delay);
-
-                // Inform the receiving router of the new incoming packet - place it on its receiving queue
-                debug.println(5, "Transmitting on link from " + source.nsap + " to " + destination.nsap);
-                destination.r.nic.receive(source.nsap, packet);
-                return true;  // Success
-            } catch (InterruptedException e) {
-                // We should not be interrupted while trying to transmit.  But if so, it fails to transmit!
-                return false;
-            }
-        }
-    }
-
     /**
      * The total stats for the given network.
+     * Only running totals and a fixed-size latency histogram are kept, so the memory used
+     * does not grow with the length of the run.
+     *
+     * Many router threads report arrivals at once, so nothing here takes a shared lock:
+     * the counters are LongAdders, and latencies go into one of a few striped histograms
+     * (picked by thread).  getStats() merges the stripes once into a snapshot, and the
+     * latency getters read that.
      **/
     public class Stat {
-        private int packetsReceived;
-        private int duplicatePackets;
-        private double meanTimeTaken;  // average time taken per packet
-        private double ewmaTimeTaken;  // exponentially weighted moving average of time taken
-        private double alpha;          // The exponentially weighting decrease
-        private ArrayList<PacketStat> packetsSent;  // Used to track the number of packets transmitted
+        private LongAdder packetsSent;
+        private LongAdder packetsReceived;
+        private LongAdder duplicatePackets;
+        private LongAdder bytesSent;       // Sizes of the packets (only traces give packets a size)
+        private LongAdder bytesReceived;
+        private AtomicLong ewmaTimeTaken;  // exponentially weighted moving average of time taken (bits of a double)
+        private double alpha;              // The exponentially weighting decrease
+        private LatencyHistogram[] latency;  // Distribution of the time taken (for mean and percentiles), striped by thread
+        private LatencyHistogram merged;     // In a snapshot: the stripes merged (the only stripe), null in the live stats
         public Stat() {
-            packetsReceived = 0;
-            duplicatePackets = 0;
-            meanTimeTaken = 0;
-            ewmaTimeTaken = 0;
+            packetsSent = new LongAdder();
+            packetsReceived = new LongAdder();
+            duplicatePackets = new LongAdder();
+            bytesSent = new LongAdder();
+            bytesReceived = new LongAdder();
+            ewmaTimeTaken = new AtomicLong(Double.doubleToLongBits(0));
             alpha = 0.1;
-            packetsSent = new ArrayList<>();
+            int stripes = 1;
+            while (stripes < 2 * Runtime.getRuntime().availableProcessors()) stripes <<= 1;
+            latency = new LatencyHistogram[stripes];
+            for (int i = 0; i < stripes; i++) latency[i] = new LatencyHistogram();
         }
 
         /**
-         * Clone/copy other stat to this new Stat
+         * Clone/copy other stat to this new Stat (the stripes are merged into one)
          **/
         private Stat(Stat other) {
-            this.packetsReceived = other.packetsReceived;
-            this.duplicatePackets = other.duplicatePackets;
-            this.meanTimeTaken = other.meanTimeTaken;
-            this.ewmaTimeTaken = other.ewmaTimeTaken;
+            this.packetsSent = new LongAdder();
+            this.packetsSent.add(other.packetsSent.sum());
+            this.packetsReceived = new LongAdder();
+            this.packetsReceived.add(other.packetsReceived.sum());
+            this.duplicatePackets = new LongAdder();
+            this.duplicatePackets.add(other.duplicatePackets.sum());
+            this.bytesSent = new LongAdder();
+            this.bytesSent.add(other.bytesSent.sum());
+            this.bytesReceived = new LongAdder();
+            this.bytesReceived.add(other.bytesReceived.sum());
+            this.ewmaTimeTaken = new AtomicLong(other.ewmaTimeTaken.get());
             this.alpha = other.alpha;
-            this.packetsSent = other.packetsSent;  // WARNING: NOT A DEEP COPY!!!
+            this.merged = other.mergedLatency();
+            this.latency = new LatencyHistogram[] { merged };
         }
 
         @Override
-        protected synchronized Object clone() {
+        protected Object clone() {
             return new Stat(this);
         }
 
-        public synchronized void add(PacketStat p) { packetsSent.add(p); }
-        public synchronized int getTotalPacketsSent() { return packetsSent.size(); }
-        public synchronized int getPacketsReceived() { return packetsReceived; }
-        public synchronized void increaseDuplicatePackets() { duplicatePackets++; }
-        public synchronized int getDuplicatePackets() { return duplicatePackets; }
+        // The latencies of a snapshot - or, on the live stats, all the stripes added together
+        private LatencyHistogram latency() {
+            return (merged != null) ? merged : mergedLatency();
+        }
+
+        // Add all the stripes together
+        private LatencyHistogram mergedLatency() {
+            LatencyHistogram all = new LatencyHistogram();
+            for (LatencyHistogram h: latency) {
+                synchronized (h) {
+                    all.add(h);
+                }
+            }
+            return all;
+        }
+
+        public void add(PacketStat p) {
+            packetsSent.increment();
+            bytesSent.add(p.size);
+        }
+        public long getTotalPacketsSent() { return packetsSent.sum(); }
+        public long getPacketsReceived() { return packetsReceived.sum(); }
+        public void increaseDuplicatePackets() { duplicatePackets.increment(); }
+        public long getDuplicatePackets() { return duplicatePackets.sum(); }
+        public void addBytesReceived(int size) { bytesReceived.add(size); }
+        public long getBytesSent() { return bytesSent.sum(); }
+        public long getBytesReceived() { return bytesReceived.sum(); }
         public void updateTimeTakenForNewArrival(long tt) {
-            packetsReceived++;
-            meanTimeTaken = meanTimeTaken + (tt - meanTimeTaken)/packetsReceived;  // Update the average: [att*(n-1) + tt]/n
-            ewmaTimeTaken = ewmaTimeTaken*(1-alpha) + tt*alpha;
+            packetsReceived.increment();
+            LatencyHistogram h = latency[(int) Thread.currentThread().getId() & (latency.length - 1)];
+            synchronized (h) {
+                // Only threads sharing this stripe ever compete for it
+                h.record(tt);
+            }
+            long old, updated;
+            do {
+                old = ewmaTimeTaken.get();
+                updated = Double.doubleToLongBits(Double.longBitsToDouble(old)*(1-alpha) + tt*alpha);
+            } while (!ewmaTimeTaken.compareAndSet(old, updated));
         }
-        public double getEWMATimeTaken() { return ewmaTimeTaken; }
-        public double getMeanTimeTaken() { return meanTimeTaken; }
+        public double getEWMATimeTaken() { return Double.longBitsToDouble(ewmaTimeTaken.get()); }
+        public double getMeanTimeTaken() { return latency().getMean(); }
+
+        /**
+         * Time taken (ms) that the given percentage of arrived packets beat - e.g. 99.9
+         **/
+        public long getPercentileTimeTaken(double percentile) { return latency().getPercentile(percentile); }
+        public long getMaxTimeTaken() { return latency().getMax(); }
     }
 
     // Statistics to track for a SINGLE packet
     private int packetNumberCount = 1;
+    private static final AtomicLongFieldUpdater<PacketStat> ARRIVALS = AtomicLongFieldUpdater.newUpdater(PacketStat.class, "arrivals");
     private class PacketStat {
         int source;
         int dest;
+        int size;               // Size in bytes (0 unless it came from a trace)
         int packetNumber;       // The specific one being created (an ID)
         long startTime;         // Time at which packet was created
         long timeTaken;         // Time taken to arrive, -1 means not yet arrived.
-        long arrivals;          // Number of times arrived (to track duplicates)
+        volatile long arrivals; // Number of times arrived (to track duplicates) - only changed through ARRIVALS
         public PacketStat(int source, int dest) {
+            this(source, dest, 0);
+        }
+
+        public PacketStat(int source, int dest, int size) {
             this.source = source;
             this.dest = dest;
+            this.size = size;
             this.packetNumber = packetNumberCount;
             packetNumberCount++;
-            this.startTime = System.currentTimeMillis();
+            this.startTime = currentTimeMillis();
             this.timeTaken = -1;
             this.arrivals = 0;
         }
@@ -166,78 +199,289 @@ public class Network {
     }
     
     private Random rand;  // Random number generator for randomizing behaviour
-    private HashMap<Integer, Node> nodes;
+    private HashMap<Integer, Node> nodes;    // NSAP -> Node, for lookups while building
+    private ArrayList<Node> nodeList;        // Node by dense index
+
+    // Links as they are added (source/destination are dense node indices).  Released once compiled.
+    private int linkCount;
+    private int[] addedSource;
+    private int[] addedDest;
+    private double[] addedMean;
+    private double[] addedStd;
+
+    // The compiled topology: links in compressed sparse row form, grouped by source node index.
+    // Outgoing links of node i are positions outStart[i] .. outStart[i+1]-1, in the order they were added
+    // (so the position within the group is the link index routers use).
+    private boolean compiled;
+    private int[] outStart;
+    private int[] outDest;       // Destination node index
+    private double[] outMean;    // Mean speed of the link
+    private double[] outStd;     // Standard deviation of the speed
+    private int[] inStart;       // Same idea for incoming links
+    private int[] inSource;      // Source node index
+
     private Debug debug;
     private Stat stats;  // Stats for this network
+    private EventQueue events;  // Non-null when running as a discrete-event simulation
+    private volatile PacketRecorder recorder;  // Non-null while packet events are being recorded
     
     public Network() {
         nodes = new HashMap<>();
+        nodeList = new ArrayList<>();
+        linkCount = 0;
+        addedSource = new int[16];
+        addedDest = new int[16];
+        addedMean = new double[16];
+        addedStd = new double[16];
+        compiled = false;
         rand = new Random();
         debug = Debug.getInstance();
         stats = new Stat();
+        events = null;
     }
 
     /**
-     * Load a network from the given text file - using the described format
-     * (See testGraph.txt)
-     * @param fileName The name of the network file to load
-     * @returns Network - a new Network containing the nodes/edges described in the file
-     *                  - null if there is an error
+     * Switch between real-time mode (a thread per router, links really sleep) and
+     * discrete-event mode (routers, link delays and traffic are events on a virtual clock).
+     * Must be chosen before the routers are created.
      **/
-    public void loadNetwork(String fileName) throws Exception {
-        BufferedReader in = new BufferedReader(new FileReader(fileName));
-        String[] line = null;
-        // First get the size of the network (nodes and edges)
-        line = getNextLine(in);
-        int n = Integer.parseInt(line[0]);
-        int m = Integer.parseInt(line[1]);
+    public void setDiscreteEventMode(boolean flag) { events = flag ? new EventQueue() : null; }
+    public boolean isDiscreteEventMode() { return events != null; }
+
+    /**
+     * Record packet events (injection, every hop, NIC queueing and drops, arrival) to the given
+     * recorder - or stop recording with null.  The caller closes the recorder when done.
+     **/
+    public void setRecorder(PacketRecorder recorder) { this.recorder = recorder; }
+    public PacketRecorder getRecorder() { return recorder; }
+
+    /**
+     * Record a packet event if a recorder is set (cheap enough to call on every hop)
+     **/
+    void record(byte event, int node, int peer, Object packet, byte queue) {
+        PacketRecorder r = recorder;
+        if (r != null) r.record(currentTimeMillis(), event, node, peer, packetNumberOf(packet), queue);
+    }
+
+    // The number of the traffic packet a packet carries (0 for routing traffic)
+    private static int packetNumberOf(Object packet) {
+        if (packet instanceof Packet) packet = ((Packet) packet).payload;
+        else if (packet instanceof FloodRouter.Packet) packet = ((FloodRouter.Packet) packet).payload;
+        return (packet instanceof PacketStat) ? ((PacketStat) packet).packetNumber : 0;
+    }
+
+    /** Seed the random number generator - so discrete-event runs can be repeated exactly **/
+    public void setRandomSeed(long seed) { rand.setSeed(seed); }
+
+    /**
+     * The current time on the network's clock (in milliseconds).
+     * Real time normally, simulated time in discrete-event mode.
+     **/
+    public long currentTimeMillis() {
+        return events != null ? events.currentTimeMillis() : System.currentTimeMillis();
+    }
+
+    /**
+     * Let time pass on the network's clock.
+     * In discrete-event mode this runs every event that falls in that window instead of sleeping.
+     **/
+    private void pause(long millis) throws InterruptedException {
+        if (events != null) events.runUntil(events.currentTimeMillis() + millis);
+        else Thread.sleep(millis);
+    }
+
+    /** Number of nodes and links in the network **/
+    public int getNodeCount() { return nodeList.size(); }
+    public int getLinkCount() { return linkCount; }
+
+    /**
+     * Add a node to the network
+     * @returns the new Node
+     **/
+    public Node addNode(int nsap, double probDown, double downTime, double downDev) throws Exception {
+        if (nodes.containsKey(nsap)) {
+            throw new Exception("Node (" + nsap + ") defined twice.");
+        }
+        if (compiled) decompileTopology();  // Before the node count changes
+        Node node = new Node(nsap, probDown, downTime, downDev, null);
+        node.index = nodeList.size();
+        nodes.put(nsap, node);  // Save the node in the hashmap for quick lookup
+        nodeList.add(node);
+        return node;
+    }
+
+    /**
+     * Add a (one-way) link from node nsapA to node nsapB
+     **/
+    public void addLink(int nsapA, int nsapB, double meanSpeed, double stdSpeed) throws Exception {
+        Node a = nodes.get(nsapA);
+        if (a == null) {
+            throw new Exception("Node (" + nsapA + ") not found.");
+        }
+        Node b = nodes.get(nsapB);
+        if (b == null) {
+            throw new Exception("Node (" + nsapB + ") not found.");
+        }
+        if (compiled) decompileTopology();
+        if (linkCount == addedSource.length) {
+            int size = linkCount * 2;
+            addedSource = Arrays.copyOf(addedSource, size);
+            addedDest = Arrays.copyOf(addedDest, size);
+            addedMean = Arrays.copyOf(addedMean, size);
+            addedStd = Arrays.copyOf(addedStd, size);
+        }
+        addedSource[linkCount] = a.index;
+        addedDest[linkCount] = b.index;
+        addedMean[linkCount] = meanSpeed;
+        addedStd[linkCount] = stdSpeed;
+        linkCount++;
+    }
+
+    /**
+     * Build the compressed sparse row arrays from the links added so far
+     * (a stable counting sort by source, and again by destination for the incoming side)
+     **/
+    private void compileTopology() {
+        if (compiled) return;
+        int n = nodeList.size();
+        int m = linkCount;
+        outStart = new int[n + 1];
+        inStart = new int[n + 1];
+        for (int e = 0; e < m; e++) {
+            outStart[addedSource[e] + 1]++;
+            inStart[addedDest[e] + 1]++;
+        }
         for (int i = 0; i < n; i++) {
-            line = getNextLine(in);
-            int nsap = Integer.parseInt(line[0]);
-            double prob = Double.parseDouble(line[1]);
-            double meanDown = Double.parseDouble(line[2]);
-            double stdDown = Double.parseDouble(line[3]);
-            Node node = new Node(nsap, prob, meanDown, stdDown, null);
-            nodes.put(nsap, node);  // Save the node in the hashmap for quick lookup
-        }
-        for (int i = 0; i < m; i++) {
-            line = getNextLine(in);
-            int nsapA = Integer.parseInt(line[0]);
-            int nsapB = Integer.parseInt(line[1]);
-            double meanSpeed = Double.parseDouble(line[2]);
-            double stdSpeed = Double.parseDouble(line[3]);
-            Node a = nodes.get(nsapA);
-            if (a == null) {
-                throw new Exception("Node (" + nsapA + ") not found.");
-            }
-            Node b = nodes.get(nsapB);
-            if (b == null) {
-                throw new Exception("Node (" + nsapB + ") not found.");
+            outStart[i + 1] += outStart[i];
+            inStart[i + 1] += inStart[i];
+        }
+        outDest = new int[m];
+        outMean = new double[m];
+        outStd = new double[m];
+        inSource = new int[m];
+        int[] outFill = Arrays.copyOf(outStart, n);
+        int[] inFill = Arrays.copyOf(inStart, n);
+        for (int e = 0; e < m; e++) {
+            int pos = outFill[addedSource[e]]++;
+            outDest[pos] = addedDest[e];
+            outMean[pos] = addedMean[e];
+            outStd[pos] = addedStd[e];
+            inSource[inFill[addedDest[e]]++] = addedSource[e];
+        }
+        // The compiled form is all that is needed from now on
+        addedSource = addedDest = null;
+        addedMean = addedStd = null;
+        compiled = true;
+    }
+
+    // Turn the compiled form back into a list of added links (so more can be added)
+    private void decompileTopology() {
+        int n = nodeList.size();
+        int size = Math.max(16, linkCount * 2);
+        addedSource = new int[size];
+        addedDest = new int[size];
+        addedMean = Arrays.copyOf(outMean, size);
+        addedStd = Arrays.copyOf(outStd, size);
+        for (int i = 0; i < n; i++) {
+            for (int e = outStart[i]; e < outStart[i + 1]; e++) {
+                addedSource[e] = i;
+                addedDest[e] = outDest[e];
             }
-            Connection c = new Connection(a, b, meanSpeed, stdSpeed);
-            a.outgoingLinks.add(c);
-            b.incomingLinks.add(c);
         }
+        outStart = outDest = inStart = inSource = null;
+        outMean = outStd = null;
+        compiled = false;
     }
 
     /**
-     * Get the next line from the buffered reader that is NOT just a pure comment
-     * Returns it as an array of Strings (tokenied by spaces) and with comments removed
-     */
-    private static String[] getNextLine(BufferedReader in) throws Exception {
-        String[] line;
-        do {
-            line = parseLine(in.readLine());
-        } while (line.length == 0 || line[0].length() == 0);
-        return line;
+     * Apply a function to the NSAP at the other end of each outgoing link of a node (in link index order)
+     **/
+    public void forEachOutgoingLink(Node n, IntConsumer action) {
+        compileTopology();
+        for (int e = outStart[n.index]; e < outStart[n.index + 1]; e++)
+            action.accept(nodeList.get(outDest[e]).nsap);
     }
-    
-    private static String[] parseLine(String line) {
-        // First remove comments (if any)
-        String[] commentLess = line.split("#", 2);
-        return commentLess[0].split(" ");
+
+    /**
+     * Apply a function to the NSAP at the other end of each incoming link of a node
+     **/
+    public void forEachIncomingLink(Node n, IntConsumer action) {
+        compileTopology();
+        for (int e = inStart[n.index]; e < inStart[n.index + 1]; e++)
+            action.accept(nodeList.get(inSource[e]).nsap);
+    }
+
+    /**
+     * Load a network from the given file - either text in the described format (See testGraph.txt)
+     * or a binary topology file (See TopologyFile)
+     * @param fileName The name of the network file to load
+     **/
+    public void loadNetwork(String fileName) throws Exception {
+        if (TopologyFile.isBinary(fileName)) loadBinaryNetwork(fileName);
+        else loadNetwork(fileName, false);
     }
 
+    /**
+     * Load a network from the given text file, optionally memory-mapping it (worth it for large files)
+     * @param fileName The name of the network file to load
+     * @param memoryMapped Whether to map the file rather than stream it
+     **/
+    public void loadNetwork(String fileName, boolean memoryMapped) throws Exception {
+        long startTime = System.nanoTime();
+        TopologyParser parser = new TopologyParser(fileName, memoryMapped);
+        parser.parse(new TopologyParser.Handler() {
+            public void node(int nsap, double prob, double meanDown, double stdDown) throws Exception {
+                addNode(nsap, prob, meanDown, stdDown);
+            }
+            public void link(int nsapA, int nsapB, double meanSpeed, double stdSpeed) throws Exception {
+                addLink(nsapA, nsapB, meanSpeed, stdSpeed);
+            }
+        });
+        compileTopology();
+        double seconds = Math.max(System.nanoTime() - startTime, 1) / 1e9;
+        loadRate = parser.getEdgeCount() / seconds;
+        debug.println(1, "Loaded " + parser.getNodeCount() + " nodes and " + parser.getEdgeCount() + " links in "
+                      + String.format("%.1f", seconds * 1000) + "ms (" + (long) loadRate + " links/s)");
+    }
+
+    /**
+     * Load a network from a binary topology file (memory-mapped, the nodes and links are copied in bulk)
+     * @param fileName The name of the file to load
+     **/
+    public void loadBinaryNetwork(String fileName) throws Exception {
+        long startTime = System.nanoTime();
+        TopologyFile t = TopologyFile.read(fileName);
+        int base = nodeList.size();
+        for (int i = 0; i < t.nodeCount; i++) {
+            addNode(t.nsap[i], t.probDown[i], t.downTime[i], t.downDev[i]);
+        }
+        if (compiled) decompileTopology();
+        int size = linkCount + t.edgeCount;
+        if (size > addedSource.length) {
+            addedSource = Arrays.copyOf(addedSource, size);
+            addedDest = Arrays.copyOf(addedDest, size);
+            addedMean = Arrays.copyOf(addedMean, size);
+            addedStd = Arrays.copyOf(addedStd, size);
+        }
+        for (int e = 0; e < t.edgeCount; e++) {
+            addedSource[linkCount + e] = base + t.source[e];
+            addedDest[linkCount + e] = base + t.dest[e];
+        }
+        System.arraycopy(t.meanSpeed, 0, addedMean, linkCount, t.edgeCount);
+        System.arraycopy(t.stdSpeed, 0, addedStd, linkCount, t.edgeCount);
+        linkCount = size;
+        compileTopology();
+        double seconds = Math.max(System.nanoTime() - startTime, 1) / 1e9;
+        loadRate = t.edgeCount / seconds;
+        debug.println(1, "Loaded " + t.nodeCount + " nodes and " + t.edgeCount + " links in "
+                      + String.format("%.1f", seconds * 1000) + "ms (" + (long) loadRate + " links/s)");
+    }
+
+    /**
+     * How fast the last loadNetwork read links (links per second)
+     **/
+    public double getLoadRate() { return loadRate; }
+
     /**
      * Print the entire network
      **/
@@ -260,19 +504,93 @@ public class Network {
      * Create routers for all the nodes on the network
      **/
     public void createRouters(Router.Generator gen) {
-        nodes.forEach((id, n) -> {
-                // Create a network interface card for each router
-                // Build an Integer only list of links to this NIC.
-                ArrayList<Integer> outgoingLinks = new ArrayList<Integer>(n.outgoingLinks.size());
-                ArrayList<Integer> incomingLinks = new ArrayList<Integer>(n.incomingLinks.size());
-                n.outgoingLinks.forEach(c -> outgoingLinks.add(c.destination.nsap));
-                n.incomingLinks.forEach(c -> incomingLinks.add(c.source.nsap));
-                NetworkInterface nic = new NetworkInterface(this, n.nsap, outgoingLinks, incomingLinks, 100);
-                
-                Router r = gen.createRouter(n.nsap, nic);  // Create router using the generator
-                n.r = r;                                   // Associate it with the node
-                n.r.start();                               // Start it running
-            });
+        createRouters(gen, Router.Execution.THREAD);
+    }
+
+    private RouterPool pool = null;  // Carrier threads when routers run pooled
+    private Router.Generator generator = null;  // What made the routers (reports their statistics)
+    private long routersStartTime = 0;  // When the routers were started
+    private double loadRate = 0;        // Links per second the last loadNetwork read
+    private TimingWheel timers = null;  // All real-time timers: link deliveries and router wake ups
+
+    /**
+     * Create routers for all the nodes on the network, running them with the given execution mode
+     **/
+    public void createRouters(Router.Generator gen, Router.Execution execution) {
+        compileTopology();
+        generator = gen;
+        routersStartTime = currentTimeMillis();
+        if (events == null) {
+            timers = new TimingWheel();
+            if (execution == Router.Execution.POOLED) pool = new RouterPool(timers);
+        }
+        for (Node n: nodeList) {
+            // Create a network interface card for each router
+            // Build an Integer only list of links to this NIC.
+            int i = n.index;
+            ArrayList<Integer> outgoingLinks = new ArrayList<Integer>(outStart[i + 1] - outStart[i]);
+            ArrayList<Integer> incomingLinks = new ArrayList<Integer>(inStart[i + 1] - inStart[i]);
+            forEachOutgoingLink(n, outgoingLinks::add);
+            forEachIncomingLink(n, incomingLinks::add);
+            NetworkInterface nic = new NetworkInterface(this, n.nsap, i, outgoingLinks, incomingLinks, 100);
+            
+            Router r = gen.createRouter(n.nsap, nic);  // Create router using the generator
+            n.r = r;                                   // Associate it with the node
+        }
+        for (Node n: nodeList) {
+            // Now that every node has a router, start them up
+            if (events != null)
+                wakeRouter(n, events.currentTimeMillis());  // Run it from the event queue
+            else if (pool != null)
+                n.task = pool.start(n.r);              // Hand it to the carrier pool
+            else
+                n.r.start();                           // Start it running
+        }
+    }
+
+    /**
+     * Run an action once delay milliseconds have passed on the network's clock.
+     * Uses the event queue in discrete-event mode and the timing wheel otherwise.
+     **/
+    private void schedule(long delay, Runnable action) {
+        if (events != null) events.scheduleAfter(delay, action);
+        else timers.schedule(delay, action);
+    }
+
+    /**
+     * The timing wheel that real-time timers register against (null in discrete-event mode
+     * or before the routers are created).
+     **/
+    public TimingWheel getTimers() { return timers; }
+
+    /**
+     * Called by a NIC when something lands on one of its queues.
+     * In discrete-event mode the router gets scheduled to handle it right away,
+     * pooled routers get queued on a carrier.
+     **/
+    void routerHasWork(int index) {
+        if (events == null && pool == null) return;  // Threaded routers wait on their own NIC
+        Node n = nodeList.get(index);
+        if (n.r == null) return;
+        if (events != null) wakeRouter(n, events.currentTimeMillis());
+        else if (n.task != null) n.task.signal();
+    }
+
+    // Discrete-event mode: make sure the router runs at the given time (unless it already runs sooner)
+    private void wakeRouter(Node n, long time) {
+        if (time >= n.nextWake) return;
+        n.nextWake = time;
+        events.schedule(time, () -> stepRouter(n, time));
+    }
+
+    // Discrete-event mode: let the router process everything waiting, then sleep until its next timer
+    private void stepRouter(Node n, long time) {
+        if (n.nextWake != time) return;  // Superseded by an earlier wake up
+        n.nextWake = Long.MAX_VALUE;
+        while (n.r.process()) { }
+        long deadline = n.r.nextTimerDeadline();
+        if (deadline != Long.MAX_VALUE)
+            wakeRouter(n, Math.max(deadline, events.currentTimeMillis() + 1));
     }
     
     private int packetFrequency = 0;
@@ -291,7 +609,7 @@ public class Network {
         runNetwork(out, length);
 
         // Finished -- Sleep a few seconds to allow packets to arrive
-        Thread.sleep(1000);
+        pause(1000);
         debug.println(1, "Network simulation completed.  Displaying statistics...");
         displayStats();        
     }
@@ -307,12 +625,12 @@ public class Network {
      **/
     private final int MIN_SLEEP = 10;
     public void runNetwork(PrintStream out, long length) throws InterruptedException {
-        List<Integer> nsaps = new ArrayList<Integer>(nodes.keySet());
+        int nodeCount = nodeList.size();
 
         long endTime = -1;
         if (length >= 0) {
             // "Infinite" time
-            endTime = System.currentTimeMillis() + length;
+            endTime = currentTimeMillis() + length;
         }
         setNetworkRunning(true);
         double minRate = 1000.0/MIN_SLEEP;
@@ -336,22 +654,64 @@ public class Network {
             }
             for (int i = 0; i < generate; i++) {
                 // And generate each packet
-                int start = rand.nextInt(nsaps.size());
-                int end = rand.nextInt(nsaps.size()-1);
+                int start = rand.nextInt(nodeCount);
+                int end = rand.nextInt(nodeCount-1);
                 if (end >= start) end++;   // This way we don't have start to start
-                Integer source = nsaps.get(start);
-                Integer dest = nsaps.get(end);
-                PacketStat aPacket = new PacketStat(source, dest);
-                transmit(source, dest, aPacket);
+                Node source = nodeList.get(start);
+                Node dest = nodeList.get(end);
+                PacketStat aPacket = new PacketStat(source.nsap, dest.nsap);
+                transmit(source, dest.nsap, aPacket);
             }                
             // Has time run out? (If it was set at all)
-            if (endTime >= 0 && System.currentTimeMillis() > endTime) setNetworkRunning(false);
+            if (endTime >= 0 && currentTimeMillis() > endTime) setNetworkRunning(false);
             else {
-                Thread.sleep(sleepTime);  // Pause for a few milliseconds and resume
+                pause(sleepTime);  // Pause for a few milliseconds and resume
             }
         }
     }
 
+    /**
+     * Replay a traffic trace (see TrafficTrace) instead of generating random traffic,
+     * then allow the packets to arrive and display the statistics
+     * @params out The output stream to use for messages
+     * @params traceFile The binary trace to replay
+     **/
+    public void runTrace(PrintStream out, String traceFile) throws IOException, InterruptedException {
+        try (TrafficTrace trace = new TrafficTrace(traceFile)) {
+            replayTrace(trace);
+        }
+
+        // Finished -- Sleep a few seconds to allow packets to arrive
+        pause(1000);
+        debug.println(1, "Trace replay completed.  Displaying statistics...");
+        displayStats();
+    }
+
+    /**
+     * Send each packet of a trace at its time (relative to now) until the trace ends or the network
+     * is stopped.  Records naming nodes not in the network are skipped.
+     **/
+    public void replayTrace(TrafficTrace trace) throws IOException, InterruptedException {
+        long startTime = currentTimeMillis();
+        long replayed = 0;
+        long skipped = 0;
+        setNetworkRunning(true);
+        while (networkRunning && trace.next()) {
+            long wait = startTime + trace.getTime() - currentTimeMillis();
+            if (wait > 0) pause(wait);
+            Node source = nodes.get(trace.getSource());
+            Node dest = nodes.get(trace.getDest());
+            if (source == null || dest == null || source == dest) {
+                skipped++;
+                continue;
+            }
+            transmit(source, dest.nsap, new PacketStat(source.nsap, dest.nsap, trace.getSize()));
+            replayed++;
+        }
+        setNetworkRunning(false);
+        debug.println(1, "Replayed " + replayed + " packets" + (skipped > 0 ? " (skipped " + skipped + ")" : ""));
+    }
+
     /**
      * Return a (copy of) the current stats
      **/
@@ -363,34 +723,33 @@ public class Network {
      * Report some statistics on the network performance
      **/
     private void displayStats() {
-        // First compute the statistics
-        int packetsTransmitted = stats.packetsSent.size();
-        int packetsReceived = 0;
-        int duplicatePackets = 0;
-        double averagePacketTime = 0.0;
-        for (PacketStat s: stats.packetsSent) {
-            if (s.arrivals > 0) {
-                packetsReceived++;
-                duplicatePackets += (s.arrivals - 1);  // How many duplicates were sent to final destination
-                averagePacketTime = (averagePacketTime*(packetsReceived-1) + s.timeTaken)/packetsReceived;
-            } 
-        }
+        Stat stat = getStats();
+        long packetsTransmitted = stat.getTotalPacketsSent();
+        long packetsReceived = stat.getPacketsReceived();
         System.out.println("Network Statistics");
         System.out.println("   Packets transmitted:     " + packetsTransmitted);
         System.out.println("   Packets received:        " + packetsReceived);
         System.out.println("   Success percentage:      " + ((double) packetsReceived/packetsTransmitted)*100);
-        System.out.println("   Duplicate packets:       " + duplicatePackets);
-        System.out.println("   Average time taken (ms): " + averagePacketTime);
+        System.out.println("   Duplicate packets:       " + stat.getDuplicatePackets());
+        System.out.println("   Average time taken (ms): " + stat.getMeanTimeTaken());
+        System.out.println("   Time taken p50/p90/p99/p99.9 (ms): " + stat.getPercentileTimeTaken(50) + " / "
+                           + stat.getPercentileTimeTaken(90) + " / " + stat.getPercentileTimeTaken(99) + " / "
+                           + stat.getPercentileTimeTaken(99.9));
+        if (stat.getBytesSent() > 0) {
+            System.out.println("   Bytes transmitted:       " + stat.getBytesSent());
+            System.out.println("   Bytes received:          " + stat.getBytesReceived());
+        }
+        if (generator != null) generator.displayStats(System.out, currentTimeMillis() - routersStartTime);
     }
     
     /**
      * "Transmit" data from source to destination in the network
      **/
-    private void transmit(Integer source, Integer dest, PacketStat data) {
-        Node s = nodes.get(source);
+    private void transmit(Node s, int dest, PacketStat data) {
         if (s.remainingDown > 0) return;   // Source is still down, can't transmit.
-        debug.println(3, "Transmitting from " + source + " to " + dest);
+        debug.println(3, "Transmitting from " + s.nsap + " to " + dest);
         stats.add(data);  // Record the transmission
+        record(PacketRecorder.INJECT, s.nsap, dest, data, (byte) 0);
         s.r.nic.transmit(dest, data);
     }
 
@@ -400,19 +759,18 @@ public class Network {
     public void receive(Integer dest, Object data) {
         if (data instanceof PacketStat) {
             PacketStat payload = (PacketStat) data;
-            synchronized (payload) {
-                if (payload.dest != dest) {
-                    debug.println(0, "Coding Error: The payload did not arrive at the proper destination.");
-                } else if (payload.timeTaken == -1) {
-                    // Packet has newly arrived
-                    payload.timeTaken = System.currentTimeMillis() - payload.startTime;
-                    payload.arrivals++;
-                    stats.updateTimeTakenForNewArrival(payload.timeTaken);
-                } else {
-                    debug.println(5, "Duplicate packet arrived. Packet: " + payload);
-                    payload.arrivals++;
-                    stats.increaseDuplicatePackets();
-                }
+            if (payload.dest != dest) {
+                debug.println(0, "Coding Error: The payload did not arrive at the proper destination.");
+            } else if (ARRIVALS.getAndIncrement(payload) == 0) {
+                // Packet has newly arrived (exactly one thread sees the count go from 0)
+                payload.timeTaken = currentTimeMillis() - payload.startTime;
+                stats.updateTimeTakenForNewArrival(payload.timeTaken);
+                if (payload.size > 0) stats.addBytesReceived(payload.size);
+                record(PacketRecorder.ARRIVE, dest, dest, payload, (byte) 0);
+            } else {
+                debug.println(5, "Duplicate packet arrived. Packet: " + payload);
+                stats.increaseDuplicatePackets();
+                record(PacketRecorder.DUPLICATE, dest, dest, payload, (byte) 0);
             }
         } else {
             debug.println(0, "Error: The payload received was NOT an initially transmitted packet!");
@@ -424,10 +782,34 @@ public class Network {
      **/
     public boolean sendOnLink(int source, int linkIndex, Object packet) {
         Node sourceNode = nodes.get(source);
-        if (linkIndex < 0 || linkIndex >= sourceNode.outgoingLinks.size())
+        if (sourceNode == null) return false;
+        return sendOnLinkFrom(sourceNode.index, linkIndex, packet);
+    }
+
+    /**
+     * "Transmit" a packet on a specific link, source given by its dense index.
+     * This is the hot path used by every NIC - straight array lookups, no hashing or boxing.
+     **/
+    boolean sendOnLinkFrom(int sourceIndex, int linkIndex, Object packet) {
+        int e = outStart[sourceIndex] + linkIndex;
+        if (linkIndex < 0 || e >= outStart[sourceIndex + 1])
             // No such link exists
             return false;
-        Connection c = sourceNode.outgoingLinks.get(linkIndex);
-        return c.sendOnLink(packet);
+
+        // The packet arrives after a delay around the average speed for this link.
+        // The sender does not wait for it - any number of packets can be on the link at once.
+        long delay = Math.round(rand.nextGaussian()*outStd[e] + outMean[e]);
+        int destIndex = outDest[e];
+        if (recorder != null) record(PacketRecorder.SEND, nodeList.get(sourceIndex).nsap, nodeList.get(destIndex).nsap, packet, (byte) 0);
+        schedule(Math.max(delay, 0), () -> deliver(sourceIndex, destIndex, packet));
+        return true;  // Success
+    }
+
+    // Inform the receiving router of the new incoming packet - place it on its receiving queue
+    private void deliver(int sourceIndex, int destIndex, Object packet) {
+        Node source = nodeList.get(sourceIndex);
+        Node destination = nodeList.get(destIndex);
+        debug.println(5, "Transmitting on link from " + source.nsap + " to " + destination.nsap);
+        destination.r.nic.receive(source.nsap, packet);
     }
 }    
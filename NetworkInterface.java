@@ -6,10 +6,7 @@
  * This simulates a "network interface card" simplistically.
  *************/
 import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.Queue;
-import javax.swing.Timer;
-import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.locks.LockSupport;
 
 
 //Hashmap of packets, and their start time
@@ -18,13 +15,21 @@ import java.util.concurrent.ConcurrentLinkedQueue;
 public class NetworkInterface {
     private Network net;  // A reference to the whole network - so we can see where this interface belongs
     private int nsap;   // The ID for this NIC
+    private int index;  // Dense index of this NIC's node in the network's compiled topology
     private ArrayList<Integer> outgoingLinks;   // A list of outgoing links
     private ArrayList<Integer> incomingLinks;   // A list of incoming links
     
 
-    private int capacity;                       // The limit to number of packets that can be waiting for processing on Queue
-    private Queue<TransmitPair> transmissionQueue;    // A list of data that needs to be transmitted starting from this NIC
-    private Queue<ReceivePair> receivedQueue;        // A list of data that has been received on this NIC and needs to be processed (received or routed)
+    private RingBuffer transmissionQueue;       // (destination, data) that needs to be transmitted starting from this NIC
+    private RingBuffer receivedQueue;           // (originator, data) received on this NIC that needs to be processed (received or routed)
+    private TransmitPair nextTransmit;          // Reused for every getTransmit() - only the router takes things off the queues
+    private ReceivePair nextReceived;           // Reused for every getReceived()
+    private RingBuffer.Consumer fillTransmit = (destination, data) -> { nextTransmit.destination = destination; nextTransmit.data = data; };
+    private RingBuffer.Consumer fillReceived = (originator, data) -> { nextReceived.originator = originator; nextReceived.data = data; };
+    private volatile Thread waiter;             // The router thread while it waits in awaitWork (null otherwise)
+    private volatile boolean woken;             // Set when the router's timer fires while it waits
+    private TimingWheel.Timeout wakeTimer;      // The router's pending timer on the network's timing wheel
+    private volatile long wakeDeadline;         // Its deadline (Long.MAX_VALUE once cancelled)
 
     public class TransmitPair {
         int destination;  // Destination of the data
@@ -38,19 +43,27 @@ public class NetworkInterface {
         public ReceivePair(int originator, Object data) { this.originator = originator; this.data = data; }
     }
     
-    public NetworkInterface(Network net, int nsap, ArrayList<Integer> outgoingLinks, ArrayList<Integer> incomingLinks, int capacity) {
+    public NetworkInterface(Network net, int nsap, int index, ArrayList<Integer> outgoingLinks, ArrayList<Integer> incomingLinks, int capacity) {
         this.net = net;
         this.nsap = nsap;
+        this.index = index;
         this.outgoingLinks = outgoingLinks;
         this.incomingLinks = incomingLinks;
-        this.capacity = capacity;
-        this.transmissionQueue = new ConcurrentLinkedQueue<TransmitPair>();
-        this.receivedQueue = new ConcurrentLinkedQueue<ReceivePair>();
+        this.transmissionQueue = new RingBuffer(capacity);
+        this.receivedQueue = new RingBuffer(capacity);
+        this.nextTransmit = new TransmitPair(0, null);
+        this.nextReceived = new ReceivePair(0, null);
     }
     
     /** Return the NSAP ID for this NIC **/
     public int getNSAP() { return nsap; }
 
+    /**
+     * The current time on the network's clock (in milliseconds).
+     * Routers should use this rather than System.currentTimeMillis() so they also work in discrete-event mode.
+     **/
+    public long currentTimeMillis() { return net.currentTimeMillis(); }
+
     /** 
      * Get the list of outgoing and incoming links.
      * The list is an array of NSAPs (IDs)
@@ -66,23 +79,25 @@ public class NetworkInterface {
      **/
     public boolean sendOnLink(int linkIndex, Object packet) {
         // Use the "network" to transmit between machines
-        return net.sendOnLink(this.nsap, linkIndex, packet);
+        return net.sendOnLinkFrom(this.index, linkIndex, packet);
     }
 
     /**
      * Transmit a payload on this network starting at THIS NIC's Router
      * The router must grab off the queue and process
      **/
-    public synchronized void transmit(int dest, Object payload) {
+    public void transmit(int dest, Object payload) {
         if (payload == null) {
             // No transmission of NULL objects -- something must be transmitted.
             Debug.getInstance().println(0, "Transmission must include at least ONE byte of information.  Sent to Node " + nsap);
             return;
         }
-        if (transmissionQueue.size() < capacity) {
-            // There is room to add it
-            transmissionQueue.add(new TransmitPair(dest, payload));
+        if (transmissionQueue.offer(dest, payload)) {
+            // There was room to add it
+            net.record(PacketRecorder.ENQUEUE, nsap, dest, payload, PacketRecorder.TRANSMIT_QUEUE);
+            signalWork();
         } else {
+            net.record(PacketRecorder.DROP, nsap, dest, payload, PacketRecorder.TRANSMIT_QUEUE);
             Debug.getInstance().println(4, "Dropped payload by Node " + nsap);
         }
     }
@@ -91,36 +106,112 @@ public class NetworkInterface {
      * Store a received payload from another NIC.
      * The router must grab off the queue and process
      **/
-    public synchronized void receive(int originator, Object payload) {
+    public void receive(int originator, Object payload) {
     	if (payload == null) {
             // No transmission of NULL objects -- something must be transmitted.
             Debug.getInstance().println(0, "Received message with no data.  Must include at least ONE byte of information.  Sent to Node " + nsap);
             return;
         }
 
-    	if (receivedQueue.size() < capacity) {
-            // There is room to add it
-            receivedQueue.add(new ReceivePair(originator, payload));
+    	if (receivedQueue.offer(originator, payload)) {
+            // There was room to add it
+            net.record(PacketRecorder.ENQUEUE, nsap, originator, payload, PacketRecorder.RECEIVED_QUEUE);
+            signalWork();
         } else {
+            net.record(PacketRecorder.DROP, nsap, originator, payload, PacketRecorder.RECEIVED_QUEUE);
             Debug.getInstance().println(4, "Node " + nsap + " dropped packet sent on link from " + originator);
             Debug.getInstance().println(6, "   Payload: " + payload.toString());
         }
     }
 
+    // Something was queued - wake the router if it is waiting
+    private void signalWork() {
+        Thread w = waiter;
+        if (w != null) LockSupport.unpark(w);
+        net.routerHasWork(index);
+    }
+
+    /**
+     * Get data from transmission Queue (router only)
+     * @returns Next element to transmit or null if nothing.
+     *          The pair is reused by the next call, so copy out what is needed first.
+     **/
+    public TransmitPair getTransmit() {
+        if (transmissionQueue.drain(fillTransmit, 1) == 0) return null;
+        return nextTransmit;
+    }
+
     /**
-     * Get data from transmission Queue
-     * @returns Next element to transmit or null if nothing
+     * Get data from received Queue (router only)
+     * @returns Next element to process or null if nothing.
+     *          The pair is reused by the next call, so copy out what is needed first.
      **/
-    public synchronized TransmitPair getTransmit() {
-        return transmissionQueue.poll();
+    public ReceivePair getReceived() {
+        if (receivedQueue.drain(fillReceived, 1) == 0) return null;
+        return nextReceived;
+    }
+
+    /**
+     * Take up to max elements off the transmission Queue in one go (router only)
+     * @param handler Called with (destination, data) for each element, in order
+     * @returns Number of elements handed to the handler
+     **/
+    public int drainTransmit(RingBuffer.Consumer handler, int max) {
+        return transmissionQueue.drain(handler, max);
+    }
+
+    /**
+     * Take up to max elements off the received Queue in one go (router only)
+     * @param handler Called with (originator, data) for each element, in order
+     * @returns Number of elements handed to the handler
+     **/
+    public int drainReceived(RingBuffer.Consumer handler, int max) {
+        return receivedQueue.drain(handler, max);
+    }
+
+    /**
+     * Block until there is something on either queue or the deadline passes - whichever comes first.
+     * Lets an idle router sleep without polling; it is woken the moment a payload lands.
+     * The deadline is registered as a timer on the network's timing wheel.
+     * Only the router's own thread may call this.
+     * @param deadline Time (network clock, ms) of the router's next timer.  Long.MAX_VALUE waits for work only.
+     **/
+    public void awaitWork(long deadline) throws InterruptedException {
+        if (deadline != Long.MAX_VALUE) {
+            if (deadline <= net.currentTimeMillis()) return;  // Timer is due
+            if (wakeTimer == null || wakeDeadline != deadline) {
+                if (wakeTimer != null) wakeTimer.cancel();
+                final long due = deadline;
+                wakeDeadline = deadline;
+                // A timer that has been superseded (but fires before it could be cancelled) is ignored
+                wakeTimer = net.getTimers().scheduleAt(deadline, () -> { if (wakeDeadline == due) wakeUp(); });
+            }
+        }
+        waiter = Thread.currentThread();
+        try {
+            while (transmissionQueue.isEmpty() && receivedQueue.isEmpty() && !woken) {
+                LockSupport.park(this);
+                if (Thread.interrupted()) throw new InterruptedException();
+            }
+        } finally {
+            waiter = null;
+            if (!woken && wakeTimer != null) {
+                // Work came first - the router works out its next deadline again after processing it
+                wakeDeadline = Long.MAX_VALUE;
+                wakeTimer.cancel();
+                wakeTimer = null;
+            }
+            woken = false;
+        }
     }
 
     /**
-     * Get data from received Queue
-     * @returns Next element to process or null if nothing
+     * Wake the router up even though nothing has arrived (its timer is due)
      **/
-    public synchronized ReceivePair getReceived() {
-        return receivedQueue.poll();
+    public void wakeUp() {
+        woken = true;
+        Thread w = waiter;
+        if (w != null) LockSupport.unpark(w);
     }
 
     /**
@@ -0,0 +1,264 @@
+/***************
+ * PacketRecorder
+ *
+ * Records what happens to packets as they cross the network, as fixed-width binary records for
+ * analysing a run offline (see Network.setRecorder).  Each record is 24 bytes, little-endian:
+ *   long time     network clock (ms)
+ *   int node      NSAP of the node where it happened
+ *   int peer      NSAP at the other end: the destination (INJECT), next hop (SEND),
+ *                 link originator (ENQUEUE/DROP on the received queue), or the node itself
+ *   int packet    number of the traffic packet involved, 0 for routing traffic
+ *   byte event    INJECT, SEND, ENQUEUE, DROP, ARRIVE or DUPLICATE
+ *   byte queue    for ENQUEUE/DROP: TRANSMIT_QUEUE or RECEIVED_QUEUE
+ *   short         unused
+ * after a 16 byte header: int magic ("GQUE"), int version, int record size, int unused.
+ *
+ * Recording must be cheap enough to leave on for whole runs, so threads write into one of a few
+ * striped buffers (picked by thread, so only threads sharing a stripe ever compete for it) and full
+ * buffers are handed to a background thread that writes them out and recycles them.  The number of
+ * buffers depends on the number of cores, not on how many router threads there are.  Records from
+ * different stripes are therefore not in time order in the file.
+ * If the disk cannot keep up, recording threads wait for the writer rather than losing records.
+ *
+ * Run it to summarise a recording:  java PacketRecorder events.bin [dump]
+ ***************/
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+public class PacketRecorder {
+    public static final int MAGIC = 0x45555147;  // "GQUE" as little-endian bytes
+    public static final int VERSION = 1;
+    public static final int HEADER_SIZE = 16;
+    public static final int RECORD_SIZE = 24;
+
+    // Events
+    public static final byte INJECT = 1;     // Traffic handed to its source router
+    public static final byte SEND = 2;       // Put on a link (one hop)
+    public static final byte ENQUEUE = 3;    // Queued on a NIC
+    public static final byte DROP = 4;       // A NIC queue was full
+    public static final byte ARRIVE = 5;     // Traffic reached its destination
+    public static final byte DUPLICATE = 6;  // ... again
+    private static final String[] EVENT_NAMES = { "?", "INJECT", "SEND", "ENQUEUE", "DROP", "ARRIVE", "DUPLICATE" };
+
+    // Queues (for ENQUEUE and DROP)
+    public static final byte TRANSMIT_QUEUE = 0;
+    public static final byte RECEIVED_QUEUE = 1;
+
+    private static final int BUFFER_RECORDS = 4096;  // Records per buffer
+    private static final int WRITE_BEHIND = 64;      // Full buffers that may wait for the writer
+
+    // One stripe's buffer (swapped for an empty one when full, null once closed)
+    private static class Stripe {
+        ByteBuffer buf;
+    }
+
+    private final FileChannel channel;
+    private final Stripe[] stripes;                            // Picked by thread
+    private final ArrayBlockingQueue<ByteBuffer> full;         // Waiting to be written
+    private final ConcurrentLinkedQueue<ByteBuffer> free;      // Written, ready to reuse
+    private final ByteBuffer endOfRecording;                   // Tells the writer to stop
+    private final Thread writer;
+    private volatile boolean closed;
+    private volatile IOException error;
+    private volatile long recordCount;                         // Records written so far (by the writer)
+
+    /**
+     * Start recording to the given file
+     **/
+    public PacketRecorder(String fileName) throws IOException {
+        RandomAccessFile file = new RandomAccessFile(fileName, "rw");
+        file.setLength(0);
+        channel = file.getChannel();
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        header.putInt(MAGIC).putInt(VERSION).putInt(RECORD_SIZE).putInt(0);
+        header.flip();
+        while (header.hasRemaining()) channel.write(header);
+
+        full = new ArrayBlockingQueue<ByteBuffer>(WRITE_BEHIND);
+        free = new ConcurrentLinkedQueue<ByteBuffer>();
+        int count = 1;
+        while (count < 2 * Runtime.getRuntime().availableProcessors()) count <<= 1;
+        stripes = new Stripe[count];
+        for (int i = 0; i < count; i++) stripes[i] = new Stripe();  // Buffers are allocated on first use
+        endOfRecording = ByteBuffer.allocate(0);
+        closed = false;
+        recordCount = 0;
+        writer = new Thread(this::writeBehind, "PacketRecorder writer");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    private ByteBuffer newBuffer() {
+        ByteBuffer b = free.poll();
+        if (b == null) b = ByteBuffer.allocateDirect(BUFFER_RECORDS * RECORD_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        b.clear();
+        return b;
+    }
+
+    /**
+     * Record one event (from any thread)
+     **/
+    public void record(long time, byte event, int node, int peer, int packet, byte queue) {
+        if (closed) return;
+        Stripe b = stripes[(int) Thread.currentThread().getId() & (stripes.length - 1)];
+        synchronized (b) {
+            if (closed) return;  // Closed since (and this stripe already flushed)
+            ByteBuffer buf = b.buf;
+            if (buf == null) buf = b.buf = newBuffer();
+            buf.putLong(time).putInt(node).putInt(peer).putInt(packet).put(event).put(queue).putShort((short) 0);
+            if (!buf.hasRemaining()) {
+                handOff(buf);
+                b.buf = null;
+            }
+        }
+    }
+
+    // Give a buffer to the writer, waiting for room if it has fallen behind
+    private void handOff(ByteBuffer buf) {
+        buf.flip();
+        boolean interrupted = false;
+        while (true) {
+            try {
+                full.put(buf);
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) Thread.currentThread().interrupt();
+    }
+
+    // The writer thread: write full buffers out until the end of the recording
+    private void writeBehind() {
+        try {
+            while (true) {
+                ByteBuffer buf = full.take();
+                if (buf == endOfRecording) return;
+                long records = buf.remaining() / RECORD_SIZE;
+                try {
+                    while (buf.hasRemaining()) channel.write(buf);
+                } catch (IOException e) {
+                    error = e;
+                }
+                recordCount += records;
+                free.offer(buf);
+            }
+        } catch (InterruptedException e) {
+            // Abandoned
+        }
+    }
+
+    /**
+     * Stop recording: write out what every stripe has buffered and close the file
+     * @returns the number of records written
+     **/
+    public long close() throws IOException {
+        if (closed) return recordCount;
+        closed = true;
+        for (Stripe b : stripes) {
+            synchronized (b) {
+                if (b.buf != null && b.buf.position() > 0) handOff(b.buf);
+                b.buf = null;
+            }
+        }
+        handOff(endOfRecording);
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        channel.close();
+        if (error != null) throw error;
+        return recordCount;
+    }
+
+    /**
+     * What a recording holds (see summarise)
+     **/
+    public static final class Summary {
+        public final long[] counts = new long[EVENT_NAMES.length];  // Records of each event, by event number
+        public long controlSends;                                   // SENDs of routing traffic (packet 0)
+        public long first = Long.MAX_VALUE;                         // Time span of the records
+        public long last = Long.MIN_VALUE;
+
+        public long count(byte event) { return counts[event]; }
+    }
+
+    /**
+     * Read a recording, counting its events.  If dump is non-null, every record is printed to it as text.
+     **/
+    public static Summary summarise(String fileName, PrintStream dump) throws IOException {
+        Summary summary = new Summary();
+        try (FileChannel channel = new RandomAccessFile(fileName, "r").getChannel()) {
+            ByteBuffer buf = ByteBuffer.allocateDirect(BUFFER_RECORDS * RECORD_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            buf.limit(HEADER_SIZE);
+            while (buf.hasRemaining() && channel.read(buf) >= 0) { }
+            buf.flip();
+            if (buf.remaining() < HEADER_SIZE || buf.getInt() != MAGIC) throw new IOException(fileName + ": not a packet recording");
+            int version = buf.getInt();
+            int recordSize = buf.getInt();
+            if (version != VERSION || recordSize != RECORD_SIZE) throw new IOException(fileName + ": unsupported recording version " + version);
+            buf.clear();
+            while (channel.read(buf) >= 0 || buf.position() > 0) {
+                buf.flip();
+                if (buf.remaining() < RECORD_SIZE) break;
+                while (buf.remaining() >= RECORD_SIZE) {
+                    long time = buf.getLong();
+                    int node = buf.getInt();
+                    int peer = buf.getInt();
+                    int packet = buf.getInt();
+                    byte event = buf.get();
+                    byte queue = buf.get();
+                    buf.getShort();
+                    if (event > 0 && event < EVENT_NAMES.length) summary.counts[event]++;
+                    if (event == SEND && packet == 0) summary.controlSends++;
+                    summary.first = Math.min(summary.first, time);
+                    summary.last = Math.max(summary.last, time);
+                    if (dump != null) {
+                        dump.println(time + " " + EVENT_NAMES[(event > 0 && event < EVENT_NAMES.length) ? event : 0]
+                                     + " node " + node + " peer " + peer + " packet " + packet
+                                     + ((event == ENQUEUE || event == DROP) ? (queue == TRANSMIT_QUEUE ? " (transmit)" : " (received)") : ""));
+                    }
+                }
+                buf.compact();
+            }
+        }
+        return summary;
+    }
+
+    /**
+     * Summarise a recording: how many of each event, and how many traffic packets got through.
+     * With "dump", print every record as text too.
+     **/
+    public static void main(String[] args) {
+        if (args.length < 1) {
+            System.err.println("Usage: java PacketRecorder <events.bin> [dump]");
+            System.exit(1);
+        }
+        boolean dump = args.length > 1 && args[1].equals("dump");
+        Summary summary = null;
+        try {
+            summary = summarise(args[0], dump ? System.out : null);
+        } catch (IOException e) {
+            System.err.println("Error reading " + args[0]);
+            System.err.println(e.getMessage());
+            System.exit(1);
+        }
+        long[] counts = summary.counts;
+        System.out.println("Packet Recording " + args[0]);
+        if (summary.first <= summary.last) System.out.println("   Time span (ms):          " + summary.first + " - " + summary.last);
+        for (int e = 1; e < EVENT_NAMES.length; e++) {
+            System.out.println("   " + String.format("%-25s", EVENT_NAMES[e] + ":") + counts[e]);
+        }
+        System.out.println("   Sends of routing traffic: " + summary.controlSends);
+        if (counts[INJECT] > 0) {
+            System.out.println("   Link sends per traffic packet: " + (double) (counts[SEND] - summary.controlSends) / counts[INJECT]);
+        }
+    }
+}
@@ -0,0 +1,84 @@
+//Round trip of a packet recording: a short discrete-event run is recorded, the file is read back,
+//and its events must match what the network counted.
+//Then many threads record at once (some still recording while it is closed): nothing may be lost or torn.
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.PrintStream;
+
+public class PacketRecorderTest {
+	public static void main(String[] args) throws Exception {
+		String fileName = args.length > 0 ? args[0] : "testGraph.gqu";
+		Debug.getInstance().setLevel(0);
+		boolean allPassed = true;
+
+		File file = File.createTempFile("events", ".bin");
+		file.deleteOnExit();
+
+		Network net = new Network();
+		net.setDiscreteEventMode(true);
+		net.setRandomSeed(340);
+		net.loadNetwork(fileName);
+		net.createRouters(new LinkStateRouter.Generator());
+		PacketRecorder recorder = new PacketRecorder(file.getPath());
+		net.setRecorder(recorder);
+		net.runNetwork(new PrintStream(new ByteArrayOutputStream()), 5000, 100);
+		net.setRecorder(null);
+		long written = recorder.close();
+
+		Network.Stat stat = net.getStats();
+		PacketRecorder.Summary summary = PacketRecorder.summarise(file.getPath(), null);
+		long total = 0;
+		for (long count : summary.counts) total += count;
+
+		allPassed &= report("records written " + written + ", read " + total, written == total && total > 0);
+		allPassed &= report("INJECT " + summary.count(PacketRecorder.INJECT) + ", packets transmitted " + stat.getTotalPacketsSent(),
+							summary.count(PacketRecorder.INJECT) == stat.getTotalPacketsSent());
+		allPassed &= report("ARRIVE " + summary.count(PacketRecorder.ARRIVE) + ", packets received " + stat.getPacketsReceived(),
+							summary.count(PacketRecorder.ARRIVE) == stat.getPacketsReceived());
+		allPassed &= report("DUPLICATE " + summary.count(PacketRecorder.DUPLICATE) + ", duplicate packets " + stat.getDuplicatePackets(),
+							summary.count(PacketRecorder.DUPLICATE) == stat.getDuplicatePackets());
+
+		file.delete();
+
+		//More threads than buffers, each recording a known number of events
+		int threads = 500;
+		int each = 1000;
+		PacketRecorder many = new PacketRecorder(file.getPath());
+		Thread[] recording = new Thread[threads];
+		for (int t = 0; t < threads; t++) {
+			final int node = t;
+			recording[t] = new Thread(() -> {
+				for (int i = 0; i < each; i++) many.record(i, PacketRecorder.SEND, node, node, i, (byte) 0);
+			});
+			recording[t].start();
+		}
+		for (Thread t : recording) t.join();
+		written = many.close();
+		summary = PacketRecorder.summarise(file.getPath(), null);
+		allPassed &= report(threads + " threads: records written " + written + ", read " + summary.count(PacketRecorder.SEND),
+							written == (long) threads * each && summary.count(PacketRecorder.SEND) == written);
+
+		//Threads that are still recording (some for the first time) when it is closed
+		PacketRecorder closing = new PacketRecorder(file.getPath());
+		for (int t = 0; t < threads; t++) {
+			final int node = t;
+			recording[t] = new Thread(() -> {
+				for (int i = 0; i < each; i++) closing.record(i, PacketRecorder.SEND, node, node, i, (byte) 0);
+			});
+			recording[t].start();
+			if (t == threads / 2) written = closing.close();
+		}
+		for (Thread t : recording) t.join();
+		summary = PacketRecorder.summarise(file.getPath(), null);
+		allPassed &= report("closed while recording: records written " + written + ", read " + summary.count(PacketRecorder.SEND),
+							summary.count(PacketRecorder.SEND) == written && file.length() == PacketRecorder.HEADER_SIZE + written * PacketRecorder.RECORD_SIZE);
+		file.delete();
+
+		System.exit(allPassed ? 0 : 1);
+	}
+
+	private static boolean report(String what, boolean passed) {
+		System.out.println(what + " - " + (passed ? "OK" : "FAILED"));
+		return passed;
+	}
+}
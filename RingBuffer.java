@@ -0,0 +1,93 @@
+/***************
+ * RingBuffer
+ *
+ * A bounded, lock-free, multi-producer/single-consumer queue of (int, Object) pairs.
+ * Used for the NetworkInterface transmit and receive queues: any thread (links, the network,
+ * other routers) may offer, but only the owning router takes things off.
+ *
+ * Everything is preallocated: the pairs live in parallel arrays, so queueing a packet does not
+ * allocate, and checking the capacity is just a subtraction.  Producers claim a position with a
+ * compare-and-set on the tail, fill the slot and then publish it through the slot's sequence number.
+ ***************/
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+public class RingBuffer {
+    /**
+     * Receives the pairs taken off the buffer
+     **/
+    public interface Consumer {
+        void accept(int key, Object value);
+    }
+
+    private int capacity;             // Maximum number of pairs held at once
+    private int mask;                 // Slot count - 1 (slot count is a power of 2 >= capacity)
+    private int[] keys;
+    private Object[] values;
+    private AtomicLongArray sequence; // Slot i holds position p once sequence[i] == p+1
+    private AtomicLong tail;          // Next position a producer will claim
+    private volatile long head;       // Next position the consumer will take
+
+    public RingBuffer(int capacity) {
+        int slots = 1;
+        while (slots < capacity) slots <<= 1;
+        this.capacity = capacity;
+        this.mask = slots - 1;
+        this.keys = new int[slots];
+        this.values = new Object[slots];
+        this.sequence = new AtomicLongArray(slots);
+        this.tail = new AtomicLong(0);
+        this.head = 0;
+    }
+
+    /**
+     * Add a pair (any thread)
+     * @returns false if the buffer is full
+     **/
+    public boolean offer(int key, Object value) {
+        long pos;
+        do {
+            pos = tail.get();
+            if (pos - head >= capacity) return false;  // Full
+        } while (!tail.compareAndSet(pos, pos + 1));
+        int i = (int) pos & mask;
+        keys[i] = key;
+        values[i] = value;
+        sequence.set(i, pos + 1);  // Publish it to the consumer
+        return true;
+    }
+
+    /**
+     * Take up to max pairs off the buffer, in order (consumer thread only)
+     * @returns the number of pairs handed to the consumer
+     **/
+    public int drain(Consumer c, int max) {
+        long h = head;
+        int count = 0;
+        while (count < max) {
+            int i = (int) h & mask;
+            if (sequence.get(i) != h + 1) break;  // Nothing (published) there yet
+            int key = keys[i];
+            Object value = values[i];
+            values[i] = null;  // Don't hold on to it
+            h++;
+            head = h;  // Frees the slot for producers
+            count++;
+            c.accept(key, value);
+        }
+        return count;
+    }
+
+    /** True if there is nothing ready for the consumer **/
+    public boolean isEmpty() {
+        long h = head;
+        return sequence.get((int) h & mask) != h + 1;
+    }
+
+    /** Number of pairs in the buffer (including ones still being written) **/
+    public int size() {
+        return (int) (tail.get() - head);
+    }
+
+    public int getCapacity() { return capacity; }
+}
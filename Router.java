@@ -4,13 +4,27 @@
  *
  * Represents a router on the network
  ***************/
+import java.io.PrintStream;
 
 public abstract class Router extends Thread {
     // A generator for the given Router class
     public static abstract class Generator {
         public abstract Router createRouter(int id, NetworkInterface nic);
+
+        // Print any statistics the routers of this class keep (at the end of a run)
+        // elapsed is how long (ms, network clock) the routers have been running
+        public void displayStats(PrintStream out, long elapsed) { }
+    }
+
+    // How the routers of a network get CPU time (ignored in discrete-event mode)
+    public enum Execution {
+        THREAD,   // One platform thread per router (the original behaviour)
+        POOLED    // All routers share a small pool of carrier threads (see RouterPool)
     }
     
+    // Most packets a router takes off each NIC queue per round
+    protected static final int BATCH_SIZE = 128;
+
     protected int nsap;   // The NSAP (ID) of this node
     protected NetworkInterface nic;  // The routers "access" to the network
 
@@ -18,4 +32,25 @@ public abstract class Router extends Thread {
         this.nsap = nsap;
         this.nic = nic;
     }
+
+    /**
+     * Do one round of work: handle anything waiting on the NIC and any timers that are due.
+     * @returns true if something was processed, false if the router was idle
+     **/
+    protected abstract boolean process();
+
+    /**
+     * The time (on the network's clock) at which this router next needs to run even if no packets arrive.
+     * Long.MAX_VALUE means it only reacts to packets.
+     **/
+    protected long nextTimerDeadline() { return Long.MAX_VALUE; }
+
+    public void run() {
+        while (true) {
+            if (!process()) {
+                // Didn't do anything, so wait for a packet or the next timer
+                try { nic.awaitWork(nextTimerDeadline()); } catch (InterruptedException e) { return; }  // Stopped
+            }
+        }
+    }
 }
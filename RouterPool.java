@@ -0,0 +1,108 @@
+/***************
+ * RouterPool
+ *
+ * Runs many routers on a small, fixed set of carrier threads instead of one thread per router.
+ * A router is only handed to a carrier when its NIC has something for it (or a timer is due),
+ * so thousands of idle routers cost no threads and no wakeups.
+ ***************/
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class RouterPool {
+    // How many rounds a router gets before it goes to the back of the line (keeps carriers fair)
+    private static final int MAX_ROUNDS = 64;
+
+    // States of a router task
+    private static final int IDLE = 0;       // Nothing to do, not queued
+    private static final int QUEUED = 1;     // Waiting for a carrier
+    private static final int RUNNING = 2;    // On a carrier right now
+    private static final int SIGNALLED = 3;  // On a carrier, and more work arrived meanwhile
+
+    /**
+     * A router scheduled on the pool.  Never runs on two carriers at once.
+     **/
+    public class Task implements Runnable {
+        private Router r;
+        private AtomicInteger state;
+        private volatile long timerAt;  // Deadline of the pending timer wake up (Long.MAX_VALUE if none)
+
+        Task(Router r) {
+            this.r = r;
+            this.state = new AtomicInteger(IDLE);
+            this.timerAt = Long.MAX_VALUE;
+        }
+
+        /** Tell the router it has work - it gets queued on a carrier unless it is already on its way **/
+        public void signal() {
+            while (true) {
+                int s = state.get();
+                if (s == IDLE) {
+                    if (state.compareAndSet(IDLE, QUEUED)) {
+                        carriers.execute(this);
+                        return;
+                    }
+                } else if (s == RUNNING) {
+                    if (state.compareAndSet(RUNNING, SIGNALLED)) return;
+                } else {
+                    return;  // Already queued or already told
+                }
+            }
+        }
+
+        public void run() {
+            state.set(RUNNING);
+            boolean busy = true;
+            for (int i = 0; i < MAX_ROUNDS && busy; i++) {
+                busy = r.process();
+            }
+            if (busy || !state.compareAndSet(RUNNING, IDLE)) {
+                // Still more to do (or more arrived) - requeue behind the other routers
+                state.set(QUEUED);
+                carriers.execute(this);
+                return;
+            }
+
+            // Idle - make sure we come back when the router's next timer is due
+            long deadline = r.nextTimerDeadline();
+            if (deadline != Long.MAX_VALUE && deadline != timerAt) {
+                timerAt = deadline;
+                timers.scheduleAt(deadline, () -> {
+                        if (timerAt == deadline) timerAt = Long.MAX_VALUE;
+                        signal();
+                    });
+            }
+        }
+    }
+
+    private ThreadPoolExecutor carriers;
+    private TimingWheel timers;  // Where router timers are registered
+
+    /**
+     * Create a pool with the given number of carrier threads
+     **/
+    public RouterPool(TimingWheel timers, int carrierCount) {
+        this.timers = timers;
+        carriers = new ThreadPoolExecutor(carrierCount, carrierCount, 0, TimeUnit.MILLISECONDS,
+                                          new LinkedBlockingQueue<Runnable>(), run -> {
+                Thread t = new Thread(run, "router-carrier");
+                t.setDaemon(true);
+                return t;
+            });
+    }
+
+    /** A pool with one carrier per available processor **/
+    public RouterPool(TimingWheel timers) {
+        this(timers, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Add a router to the pool and give it its first run
+     **/
+    public Task start(Router r) {
+        Task t = new Task(r);
+        t.signal();
+        return t;
+    }
+}
@@ -0,0 +1,391 @@
+/***************
+ * SpfEngine
+ *
+ * Shortest-path-first (Dijkstra) over a graph given as int-indexed arrays.
+ * Nodes are 0..n-1 and the edges out of node u are positions start[u] .. start[u+1]-1
+ * of target[] (the node at the other end) and weight[].
+ *
+ * Uses an indexed binary heap (so a shorter distance is a decrease-key, not a duplicate entry)
+ * and records a predecessor and the first hop for each node instead of copying paths.
+ * All working arrays are kept between runs and only grow, so recomputing allocates nothing.
+ *
+ * After a full compute() the engine remembers the graph arrays, so when a single edge weight changes
+ * updateEdge() repairs just the part of the shortest path tree the change affects (dynamic SPF):
+ * a cheaper edge spreads shorter distances outwards from its far end, a dearer edge that was in
+ * the tree resets the subtree below it and reconnects that subtree from the rest of the graph.
+ *
+ * computeNextHops() then finds, for every node, all the first hops that start a shortest path
+ * (equal-cost multipath), not just the one the tree happens to use.
+ ***************/
+
+public class SpfEngine {
+    private static final int NOT_QUEUED = -1;
+    private static final int SETTLED = -2;
+
+    private double[] dist;     // Distance from the source (POSITIVE_INFINITY if unreachable)
+    private int[] pred;        // Predecessor on the shortest path (-1 for the source/unreachable)
+    private int[] firstHop;    // First node after the source on the shortest path (-1 for the source/unreachable)
+    private int[] heap;        // Binary heap of node indices, ordered by dist
+    private int[] heapPos;     // Position of each node in the heap, or NOT_QUEUED / SETTLED
+    private int heapSize;
+    private int nodeCount;     // Size of the last graph computed
+    private int source;        // Source of the last run
+
+    // The graph of the last full run (owned by the caller, who may change weights and call updateEdge)
+    private int[] start;
+    private int[] target;
+    private double[] weight;
+
+    // Incoming edges, built when first needed after a full run
+    private boolean reverseValid;
+    private int[] inStart;     // Offsets into inEdge per node (length n+1)
+    private int[] inEdge;      // Edge indices (into target/weight) ending at each node
+    private int[] inFrom;      // The node each of those edges starts at
+    private int[] affected;    // Scratch list of the nodes whose path a change invalidated
+
+    // Equal-cost next hops, valid until the next compute/update
+    private boolean nextHopsValid;
+    private int[] hopStart;    // Offsets into hopList per node (length n+1)
+    private int[] hopList;     // First hop nodes of each node
+    private long[] hopMask;    // Scratch: per node, bit k set if the source's k-th neighbor starts a shortest path
+    private int[] slotOf;      // Scratch: bit number of each of the source's neighbors (-1 for other nodes)
+    private int[] slotNode;    // Scratch: the neighbor for each bit number
+    private int[] pending;     // Scratch: shortest-path edges into each node not yet processed
+
+    public SpfEngine() {
+        ensureCapacity(16);
+        inStart = new int[17];
+        inEdge = new int[16];
+        inFrom = new int[16];
+        hopStart = new int[17];
+        hopList = new int[16];
+        hopMask = new long[16];
+        nodeCount = 0;
+        source = -1;
+    }
+
+    // Make sure the working arrays can hold n nodes
+    private void ensureCapacity(int n) {
+        if (dist != null && dist.length >= n) return;
+        int size = Math.max(n, dist == null ? 16 : dist.length * 2);
+        dist = new double[size];
+        pred = new int[size];
+        firstHop = new int[size];
+        heap = new int[size];
+        heapPos = new int[size];
+        affected = new int[size];
+        slotOf = new int[size];
+        slotNode = new int[size];
+        pending = new int[size];
+    }
+
+    /**
+     * Compute the shortest paths from source to every node
+     * @param n Number of nodes
+     * @param start Edge offsets per node (length n+1)
+     * @param target Node at the far end of each edge
+     * @param weight Weight of each edge
+     * @param source The node to start from
+     **/
+    public void compute(int n, int[] start, int[] target, double[] weight, int source) {
+        ensureCapacity(n);
+        this.nodeCount = n;
+        this.source = source;
+        for (int i = 0; i < n; i++) {
+            dist[i] = Double.POSITIVE_INFINITY;
+            pred[i] = -1;
+            firstHop[i] = -1;
+            heapPos[i] = NOT_QUEUED;
+        }
+        this.start = start;
+        this.target = target;
+        this.weight = weight;
+        this.reverseValid = false;
+        this.nextHopsValid = false;
+        heapSize = 0;
+        dist[source] = 0;
+        push(source);
+        propagate();
+    }
+
+    /**
+     * Repair the last result after the weight of one edge changed.  The caller must already have
+     * stored the new weight in the weight array given to compute() (the structure must not change).
+     * @param u The node the edge starts at
+     * @param e The index of the edge
+     * @param oldWeight What the weight was before
+     **/
+    public void updateEdge(int u, int e, double oldWeight) {
+        nextHopsValid = false;
+        int v = target[e];
+        double w = weight[e];
+        if (w < oldWeight) {
+            // Cheaper - only matters if it now gives v a shorter path, which then spreads outwards
+            if (dist[u] + w < dist[v]) {
+                relax(u, v, dist[u] + w);
+                propagate();
+            }
+        } else if (w > oldWeight && pred[v] == u) {
+            // Dearer and on the tree - everything below v has to find its way again
+            int count = collectSubtree(v);
+            for (int i = 0; i < count; i++) {
+                int a = affected[i];
+                dist[a] = Double.POSITIVE_INFINITY;
+                pred[a] = -1;
+                firstHop[a] = -1;
+                heapPos[a] = NOT_QUEUED;
+            }
+            if (!reverseValid) buildReverse();
+            for (int i = 0; i < count; i++) {
+                // Best way in from the part of the tree that did not change (the marked nodes are unreachable for now)
+                int a = affected[i];
+                for (int k = inStart[a]; k < inStart[a + 1]; k++) {
+                    int x = inFrom[k];
+                    double d = dist[x] + weight[inEdge[k]];
+                    if (d < dist[a]) relax(x, a, d);
+                }
+            }
+            propagate();
+        }
+    }
+
+    // Run Dijkstra from whatever is on the heap, lowering any distance it can
+    private void propagate() {
+        while (heapSize > 0) {
+            int u = pop();
+            heapPos[u] = SETTLED;
+            double du = dist[u];
+            for (int e = start[u]; e < start[u + 1]; e++) {
+                double d = du + weight[e];
+                if (d < dist[target[e]]) relax(u, target[e], d);
+            }
+        }
+    }
+
+    // Give v the distance d through u and (re)queue it
+    private void relax(int u, int v, double d) {
+        dist[v] = d;
+        pred[v] = u;
+        firstHop[v] = (u == source) ? v : firstHop[u];
+        if (heapPos[v] >= 0) siftUp(heapPos[v]);
+        else push(v);
+    }
+
+    // Put v and every node whose shortest path goes through v in affected[], returning how many
+    private int collectSubtree(int v) {
+        // Children lists from the predecessors, in the heap array (free between runs): heap[first child], heapPos[next sibling]
+        int[] firstChild = heap;
+        int[] nextSibling = heapPos;
+        for (int i = 0; i < nodeCount; i++) firstChild[i] = -1;
+        for (int i = 0; i < nodeCount; i++) {
+            if (pred[i] >= 0) {
+                nextSibling[i] = firstChild[pred[i]];
+                firstChild[pred[i]] = i;
+            } else {
+                nextSibling[i] = -1;
+            }
+        }
+        int count = 0;
+        affected[count++] = v;
+        for (int i = 0; i < count; i++) {
+            for (int c = firstChild[affected[i]]; c != -1; c = nextSibling[c]) affected[count++] = c;
+        }
+        // Put the heap back the way an idle engine leaves it
+        for (int i = 0; i < nodeCount; i++) heapPos[i] = (pred[i] >= 0 || i == source) ? SETTLED : NOT_QUEUED;
+        heapSize = 0;
+        return count;
+    }
+
+    // Index the edges by the node they end at
+    private void buildReverse() {
+        int edges = start[nodeCount];
+        if (inStart.length < nodeCount + 1) inStart = new int[Math.max(nodeCount + 1, inStart.length * 2)];
+        if (inEdge.length < edges) {
+            inEdge = new int[Math.max(edges, inEdge.length * 2)];
+            inFrom = new int[inEdge.length];
+        }
+        for (int i = 0; i <= nodeCount; i++) inStart[i] = 0;
+        for (int e = 0; e < edges; e++) inStart[target[e] + 1]++;
+        for (int i = 0; i < nodeCount; i++) inStart[i + 1] += inStart[i];
+        for (int u = 0; u < nodeCount; u++) {
+            for (int e = start[u]; e < start[u + 1]; e++) {
+                int k = inStart[target[e]]++;
+                inEdge[k] = e;
+                inFrom[k] = u;
+            }
+        }
+        // The fill moved each offset along to the next node's - shift them back
+        for (int i = nodeCount; i > 0; i--) inStart[i] = inStart[i - 1];
+        inStart[0] = 0;
+        reverseValid = true;
+    }
+
+    /**
+     * Find every first hop that starts a shortest path, for every node.
+     * @param tolerance Paths up to this fraction longer than the shortest count as equal (0 = exactly equal).
+     *        Anything above 0 risks loops between routers that disagree on which paths are "equal".
+     **/
+    public void computeNextHops(double tolerance) {
+        int n = nodeCount;
+        if (!reverseValid) buildReverse();
+
+        // Give each of the source's neighbors a bit
+        for (int i = 0; i < n; i++) slotOf[i] = -1;
+        int slots = 0;
+        for (int e = start[source]; e < start[source + 1]; e++) {
+            int v = target[e];
+            if (slotOf[v] < 0 && v != source) {
+                slotOf[v] = slots;
+                slotNode[slots++] = v;
+            }
+        }
+        int words = Math.max(1, (slots + 63) >>> 6);
+        if (hopMask.length < n * words) hopMask = new long[Math.max(n * words, hopMask.length * 2)];
+        for (int i = 0; i < n * words; i++) hopMask[i] = 0;
+
+        // Count the shortest-path edges into each node, then visit the nodes in that order (Kahn),
+        // so a node's hops are complete before they are passed on
+        for (int v = 0; v < n; v++) {
+            pending[v] = 0;
+            for (int k = inStart[v]; k < inStart[v + 1]; k++) {
+                if (isTight(inFrom[k], v, weight[inEdge[k]], tolerance)) pending[v]++;
+            }
+        }
+        int head = 0, tail = 0;
+        int[] queue = affected;
+        if (dist[source] != Double.POSITIVE_INFINITY) queue[tail++] = source;
+        pending[source] = 0;
+        while (head < tail) {
+            int u = queue[head++];
+            for (int e = start[u]; e < start[u + 1]; e++) {
+                int v = target[e];
+                if (v == source || !isTight(u, v, weight[e], tolerance)) continue;
+                if (u == source) {
+                    hopMask[v * words + (slotOf[v] >>> 6)] |= 1L << slotOf[v];
+                } else {
+                    for (int w = 0; w < words; w++) hopMask[v * words + w] |= hopMask[u * words + w];
+                }
+                if (--pending[v] == 0) queue[tail++] = v;
+            }
+        }
+
+        // Turn the masks into lists (nodes stuck behind a cycle of free links keep their one tree hop)
+        if (hopStart.length < n + 1) hopStart = new int[Math.max(n + 1, hopStart.length * 2)];
+        int count = 0;
+        for (int v = 0; v < n; v++) {
+            hopStart[v] = count;
+            boolean any = false;
+            for (int w = 0; w < words; w++) {
+                long bits = hopMask[v * words + w];
+                while (bits != 0) {
+                    int slot = (w << 6) + Long.numberOfTrailingZeros(bits);
+                    bits &= bits - 1;
+                    hopList = ensure(hopList, count + 1);
+                    hopList[count++] = slotNode[slot];
+                    any = true;
+                }
+            }
+            if (!any && firstHop[v] >= 0) {
+                hopList = ensure(hopList, count + 1);
+                hopList[count++] = firstHop[v];
+            }
+        }
+        hopStart[n] = count;
+        nextHopsValid = true;
+    }
+
+    // Is the edge u->v (of weight w) on a shortest path to v (within the tolerance)?
+    private boolean isTight(int u, int v, double w, double tolerance) {
+        if (u == v || dist[u] == Double.POSITIVE_INFINITY || dist[v] == Double.POSITIVE_INFINITY) return false;
+        return dist[u] + w <= dist[v] * (1 + tolerance) + 1e-9;
+    }
+
+    private static int[] ensure(int[] array, int size) {
+        if (array.length >= size) return array;
+        int[] bigger = new int[Math.max(size, array.length * 2)];
+        System.arraycopy(array, 0, bigger, 0, array.length);
+        return bigger;
+    }
+
+    /** Number of first hops that start a shortest path to v (1 at most unless computeNextHops was called since) **/
+    public int getNextHopCount(int v) {
+        if (!nextHopsValid) return firstHop[v] < 0 ? 0 : 1;
+        return hopStart[v + 1] - hopStart[v];
+    }
+
+    /** The i-th first hop starting a shortest path to v (0 <= i < getNextHopCount(v)) **/
+    public int getNextHop(int v, int i) {
+        if (!nextHopsValid) return firstHop[v];
+        return hopList[hopStart[v] + i];
+    }
+
+    /** True if the last full computation was on the graph with these edge offsets (so updateEdge applies to it) **/
+    public boolean isComputedOn(int[] start) { return this.start == start; }
+
+    /** Number of nodes in the last computation **/
+    public int getNodeCount() { return nodeCount; }
+
+    /** Source of the last computation **/
+    public int getSource() { return source; }
+
+    /** Distance from the source to v (POSITIVE_INFINITY if unreachable) **/
+    public double getDistance(int v) { return dist[v]; }
+
+    /** Node before v on its shortest path (-1 for the source or if unreachable) **/
+    public int getPredecessor(int v) { return pred[v]; }
+
+    /** First node after the source on the shortest path to v (-1 for the source or if unreachable) **/
+    public int getFirstHop(int v) { return firstHop[v]; }
+
+    // ---- Indexed binary heap on dist ----
+
+    private void push(int v) {
+        heap[heapSize] = v;
+        heapPos[v] = heapSize;
+        heapSize++;
+        siftUp(heapSize - 1);
+    }
+
+    private int pop() {
+        int top = heap[0];
+        heapSize--;
+        if (heapSize > 0) {
+            heap[0] = heap[heapSize];
+            heapPos[heap[0]] = 0;
+            siftDown(0);
+        }
+        return top;
+    }
+
+    private void siftUp(int i) {
+        int v = heap[i];
+        double d = dist[v];
+        while (i > 0) {
+            int parent = (i - 1) >> 1;
+            int p = heap[parent];
+            if (dist[p] <= d) break;
+            heap[i] = p;
+            heapPos[p] = i;
+            i = parent;
+        }
+        heap[i] = v;
+        heapPos[v] = i;
+    }
+
+    private void siftDown(int i) {
+        int v = heap[i];
+        double d = dist[v];
+        while (true) {
+            int child = 2 * i + 1;
+            if (child >= heapSize) break;
+            if (child + 1 < heapSize && dist[heap[child + 1]] < dist[heap[child]]) child++;
+            int c = heap[child];
+            if (dist[c] >= d) break;
+            heap[i] = c;
+            heapPos[c] = i;
+            i = child;
+        }
+        heap[i] = v;
+        heapPos[v] = i;
+    }
+}
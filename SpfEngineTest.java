@@ -0,0 +1,92 @@
+//Checks the dynamic SPF repair: after random edge weight changes, SpfEngine.updateEdge must leave the same
+//distances, a consistent shortest path tree and the same equal-cost next hops as computing everything again.
+import java.util.Random;
+
+public class SpfEngineTest {
+	public static void main(String[] args) {
+		Random rand = new Random(args.length > 0 ? Long.parseLong(args[0]) : 1);
+		boolean allPassed = true;
+
+		for (int round = 0; round < 20; round++) {
+			//A random graph - whole number weights so every path adds up exactly
+			int n = 10 + rand.nextInt(200);
+			int degree = 1 + rand.nextInt(5);
+			int[] start = new int[n + 1];
+			int[] target = new int[n * degree];
+			double[] weight = new double[n * degree];
+			int e = 0;
+			for (int u = 0; u < n; u++) {
+				start[u] = e;
+				boolean[] used = new boolean[n];
+				for (int k = 0; k < degree; k++) {
+					int v = rand.nextInt(n);
+					if (v == u || used[v]) continue;
+					used[v] = true;
+					target[e] = v;
+					weight[e] = 1 + rand.nextInt(20);
+					e++;
+				}
+			}
+			start[n] = e;
+			int source = rand.nextInt(n);
+
+			SpfEngine dynamic = new SpfEngine();
+			SpfEngine full = new SpfEngine();
+			dynamic.compute(n, start, target, weight, source);
+			int changes = 0;
+			int mismatches = 0;
+			for (int step = 0; step < 200; step++) {
+				//A few changes at a time, as IntGraph.recalculate applies them - dearer, cheaper, or cut off
+				int batch = 1 + rand.nextInt(3);
+				for (int b = 0; b < batch && e > 0; b++) {
+					int edge = rand.nextInt(e);
+					int u = 0;
+					while (start[u + 1] <= edge) u++;
+					double old = weight[edge];
+					int kind = rand.nextInt(10);
+					if (kind == 0) weight[edge] = Double.POSITIVE_INFINITY;
+					else if (kind < 5) weight[edge] = Math.max(1, old - 1 - rand.nextInt(10));
+					else weight[edge] = Math.min(old, 1000) + 1 + rand.nextInt(10);
+					dynamic.updateEdge(u, edge, old);
+					changes++;
+				}
+				dynamic.computeNextHops(0);
+				full.compute(n, start, target, weight, source);
+				full.computeNextHops(0);
+				if (!same(dynamic, full, n, start, target, weight, source)) mismatches++;
+			}
+			boolean passed = mismatches == 0;
+			System.out.println(n + " nodes, " + e + " edges, " + changes + " changes: "
+							   + (passed ? "OK" : mismatches + " mismatches - FAILED"));
+			allPassed &= passed;
+		}
+		System.exit(allPassed ? 0 : 1);
+	}
+
+	//Same distances and next hops as the full computation, and a tree that really gives those distances
+	private static boolean same(SpfEngine dynamic, SpfEngine full, int n, int[] start, int[] target, double[] weight, int source) {
+		for (int v = 0; v < n; v++) {
+			if (dynamic.getDistance(v) != full.getDistance(v)) return false;
+			if (v == source || dynamic.getDistance(v) == Double.POSITIVE_INFINITY) continue;
+			int p = dynamic.getPredecessor(v);
+			if (p < 0 || dynamic.getDistance(p) + edgeWeight(p, v, start, target, weight) != dynamic.getDistance(v)) return false;
+			if (dynamic.getFirstHop(v) != (p == source ? v : dynamic.getFirstHop(p))) return false;
+
+			//Equal-cost next hops (as sets)
+			if (dynamic.getNextHopCount(v) != full.getNextHopCount(v)) return false;
+			for (int i = 0; i < dynamic.getNextHopCount(v); i++) {
+				boolean found = false;
+				for (int j = 0; j < full.getNextHopCount(v); j++) found |= dynamic.getNextHop(v, i) == full.getNextHop(v, j);
+				if (!found) return false;
+			}
+		}
+		return true;
+	}
+
+	private static double edgeWeight(int u, int v, int[] start, int[] target, double[] weight) {
+		for (int e = start[u]; e < start[u + 1]; e++) {
+			if (target[e] == v) return weight[e];
+		}
+		return Double.POSITIVE_INFINITY;
+	}
+}
@@ -0,0 +1,234 @@
+/***************
+ * TimingWheel
+ *
+ * A hierarchical hashed timing wheel shared by all real-time timers of a network:
+ * link deliveries, router timers (pings, recalculation) and pooled router wake ups.
+ *
+ * Time is split into 1ms ticks.  The first level has a slot per tick for the next 256ms,
+ * each higher level has 64 slots covering 64 slots of the level below.  A timer goes into
+ * the slot for its deadline on the lowest level that reaches it, and is moved (cascaded)
+ * down a level as its deadline gets closer.  Adding and cancelling a timer is O(1) no matter
+ * how many are pending - each slot is a doubly-linked list.
+ *
+ * One daemon thread advances the wheel and runs the expired actions, so actions must be short.
+ ***************/
+import java.util.concurrent.locks.LockSupport;
+
+public class TimingWheel {
+    private static final int LEVEL0_BITS = 8;    // 256 slots of 1ms
+    private static final int LEVEL_BITS = 6;     // 64 slots on every higher level
+    private static final int LEVELS = 4;         // Reaches 2^26 ms (about 18 hours)
+    private static final int LEVEL0_MASK = (1 << LEVEL0_BITS) - 1;
+    private static final int LEVEL_MASK = (1 << LEVEL_BITS) - 1;
+    private static final long MAX_DELTA = 1L << (LEVEL0_BITS + (LEVELS - 1) * LEVEL_BITS);
+
+    /**
+     * A pending timer.  Keep it to cancel the timer later.
+     **/
+    public class Timeout {
+        private long deadline;     // Tick at which it fires
+        private Runnable action;   // What to run
+        private Timeout prev, next;
+        private Timeout[] slots;   // The level it is currently stored on (null once fired or cancelled)
+        private int slot;          // Its slot on that level
+
+        private Timeout(long deadline, Runnable action) {
+            this.deadline = deadline;
+            this.action = action;
+        }
+
+        /** The time (ms, System clock) at which this timer fires **/
+        public long getDeadline() { return startMillis + deadline; }
+
+        /**
+         * Cancel the timer
+         * @returns true if it was still pending
+         **/
+        public boolean cancel() {
+            synchronized (TimingWheel.this) {
+                if (slots == null) return false;
+                unlink(this);
+                pending--;
+                return true;
+            }
+        }
+    }
+
+    private Timeout[][] wheel;      // The slot lists for each level
+    private long startMillis;       // System time of tick 0
+    private long currentTick;       // The last tick that has been processed
+    private Thread ticker;          // Thread driving the wheel
+    private boolean tickerIdle;     // True while the ticker waits for the first timer
+
+    // Counters
+    private int pending;            // Timers waiting to fire
+    private long expired;           // Timers that have fired
+    private volatile long tickLag;  // How many ticks behind real time the last pass started
+    private volatile long maxTickLag;
+
+    public TimingWheel() {
+        wheel = new Timeout[LEVELS][];
+        wheel[0] = new Timeout[1 << LEVEL0_BITS];
+        for (int i = 1; i < LEVELS; i++) wheel[i] = new Timeout[1 << LEVEL_BITS];
+        startMillis = System.currentTimeMillis();
+        currentTick = 0;
+        ticker = new Thread(this::runTicker, "timing-wheel");
+        ticker.setDaemon(true);
+        ticker.start();
+    }
+
+    /** Current time (ms) as the wheel sees it **/
+    public long currentTimeMillis() { return System.currentTimeMillis(); }
+
+    /**
+     * Run the action after the given number of milliseconds
+     **/
+    public Timeout schedule(long delay, Runnable action) {
+        return scheduleAt(System.currentTimeMillis() + delay, action);
+    }
+
+    /**
+     * Run the action at the given time (ms, System clock).  Times in the past fire on the next tick.
+     **/
+    public synchronized Timeout scheduleAt(long time, Runnable action) {
+        if (tickerIdle) {
+            // Wheel is empty and the ticker stopped ticking - bring it up to date first
+            currentTick = Math.max(currentTick, System.currentTimeMillis() - startMillis);
+        }
+        Timeout t = new Timeout(Math.max(time - startMillis, 0), action);
+        insert(t, currentTick + 1);
+        pending++;
+        if (tickerIdle) notifyAll();
+        return t;
+    }
+
+    /** Number of timers waiting to fire **/
+    public synchronized int getPendingTimers() { return pending; }
+
+    /** Number of timers that have fired so far **/
+    public synchronized long getExpiredTimers() { return expired; }
+
+    /** How far (ms) the wheel was behind real time when it last caught up **/
+    public long getTickLag() { return tickLag; }
+
+    /** The worst lag seen so far **/
+    public long getMaxTickLag() { return maxTickLag; }
+
+    // Put the timer in the slot for its deadline on the lowest level that reaches it
+    // firstTick is the earliest tick that has not been processed yet
+    private void insert(Timeout t, long firstTick) {
+        long delta = t.deadline - currentTick;
+        int level;
+        int slot;
+        if (t.deadline <= firstTick) {
+            // Already due, fire as soon as possible
+            level = 0;
+            slot = (int) (firstTick & LEVEL0_MASK);
+        } else if (delta < (1 << LEVEL0_BITS)) {
+            level = 0;
+            slot = (int) (t.deadline & LEVEL0_MASK);
+        } else {
+            long when = t.deadline;
+            if (delta >= MAX_DELTA) when = currentTick + MAX_DELTA - 1;  // Too far ahead, park it on the top level
+            level = 1;
+            while (level < LEVELS - 1 && delta >= (1L << (LEVEL0_BITS + level * LEVEL_BITS))) level++;
+            slot = (int) ((when >> (LEVEL0_BITS + (level - 1) * LEVEL_BITS)) & LEVEL_MASK);
+        }
+        Timeout[] slots = wheel[level];
+        t.slots = slots;
+        t.slot = slot;
+        t.prev = null;
+        t.next = slots[slot];
+        if (t.next != null) t.next.prev = t;
+        slots[slot] = t;
+    }
+
+    private void unlink(Timeout t) {
+        if (t.prev != null) t.prev.next = t.next;
+        else t.slots[t.slot] = t.next;
+        if (t.next != null) t.next.prev = t.prev;
+        t.slots = null;
+        t.prev = t.next = null;
+    }
+
+    // Move every timer in a slot of a higher level down to where it belongs now
+    private int cascade(int level, int slot) {
+        Timeout t = wheel[level][slot];
+        wheel[level][slot] = null;
+        while (t != null) {
+            Timeout next = t.next;
+            insert(t, currentTick);
+            t = next;
+        }
+        return slot;
+    }
+
+    /**
+     * Advance the wheel by one tick.
+     * @returns the list (linked by next) of timers that are now due
+     **/
+    private Timeout advance() {
+        currentTick++;
+        int index = (int) (currentTick & LEVEL0_MASK);
+        if (index == 0) {
+            // Wrapped around level 0 - pull the next batch down from above
+            for (int level = 1; level < LEVELS; level++) {
+                int slot = (int) ((currentTick >> (LEVEL0_BITS + (level - 1) * LEVEL_BITS)) & LEVEL_MASK);
+                if (cascade(level, slot) != 0) break;
+            }
+        }
+        Timeout due = wheel[0][index];
+        wheel[0][index] = null;
+        for (Timeout t = due; t != null; t = t.next) {
+            t.slots = null;
+            pending--;
+            expired++;
+        }
+        return due;
+    }
+
+    private void runTicker() {
+        while (true) {
+            long target = System.currentTimeMillis() - startMillis;
+            Timeout due = null;
+            synchronized (this) {
+                if (pending == 0) {
+                    // Nothing to do - skip ahead and wait for the next timer instead of ticking
+                    if (target > currentTick) currentTick = target;
+                    tickerIdle = true;
+                    try { wait(); } catch (InterruptedException e) { }
+                    tickerIdle = false;
+                    continue;
+                }
+                long lag = target - currentTick;
+                if (lag > 0) {
+                    tickLag = lag - 1;
+                    if (tickLag > maxTickLag) maxTickLag = tickLag;
+                }
+                // Catch up with real time, collecting everything that comes due on the way
+                Timeout last = null;
+                while (currentTick < target) {
+                    Timeout list = advance();
+                    if (list == null) continue;
+                    if (due == null) due = list;
+                    else last.next = list;
+                    last = list;
+                    while (last.next != null) last = last.next;
+                }
+            }
+
+            // Run the expired actions outside the lock
+            while (due != null) {
+                Timeout next = due.next;
+                due.prev = due.next = null;
+                try {
+                    due.action.run();
+                } catch (RuntimeException e) {
+                    Debug.getInstance().println(0, "Timer action failed: " + e);
+                }
+                due = next;
+            }
+            LockSupport.parkNanos(1000000L);  // Until (about) the next tick
+        }
+    }
+}
@@ -0,0 +1,246 @@
+/***************
+ * TopologyFile
+ *
+ * A network description in a compact binary form, for big topologies that are loaded over and over:
+ * reading it is a handful of bulk copies out of a memory-mapped file instead of parsing text.
+ *
+ * Layout (little-endian, version 1):
+ *   header     int magic ("GQUB"), int version, int nodeCount, int edgeCount
+ *   nodes      int nsap[nodeCount] (padded to a multiple of 8 bytes),
+ *              double probDown[nodeCount], double downTime[nodeCount], double downDev[nodeCount]
+ *   edges      int source[edgeCount], int dest[edgeCount] (node indices, i.e. positions in nsap[]),
+ *              double meanSpeed[edgeCount], double stdSpeed[edgeCount]
+ * Edges keep the order of the text file they came from, so a network loaded from either is the same.
+ *
+ * Run it to convert a .gqu file:  java TopologyFile network.gqu network.gqb
+ ***************/
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.HashMap;
+
+public class TopologyFile {
+    public static final int MAGIC = 0x42555147;  // "GQUB" as little-endian bytes
+    public static final int VERSION = 1;
+    private static final int HEADER_SIZE = 16;
+
+    public int nodeCount;
+    public int edgeCount;
+    public int[] nsap;
+    public double[] probDown;
+    public double[] downTime;
+    public double[] downDev;
+    public int[] source;
+    public int[] dest;
+    public double[] meanSpeed;
+    public double[] stdSpeed;
+
+    public TopologyFile(int nodeCount, int edgeCount) {
+        this.nodeCount = nodeCount;
+        this.edgeCount = edgeCount;
+        nsap = new int[nodeCount];
+        probDown = new double[nodeCount];
+        downTime = new double[nodeCount];
+        downDev = new double[nodeCount];
+        source = new int[edgeCount];
+        dest = new int[edgeCount];
+        meanSpeed = new double[edgeCount];
+        stdSpeed = new double[edgeCount];
+    }
+
+    // Bytes taken by the nsap array (kept a multiple of 8 so the doubles after it stay aligned)
+    private static long nsapBytes(int nodeCount) { return ((4L * nodeCount + 7) / 8) * 8; }
+
+    /**
+     * True if the file starts like a binary topology file (rather than a .gqu text file)
+     **/
+    public static boolean isBinary(String fileName) throws IOException {
+        try (FileInputStream in = new FileInputStream(fileName)) {
+            byte[] head = new byte[4];
+            if (in.read(head) != 4) return false;
+            return ByteBuffer.wrap(head).order(ByteOrder.LITTLE_ENDIAN).getInt() == MAGIC;
+        }
+    }
+
+    /**
+     * Read a binary topology file (memory-mapped)
+     **/
+    public static TopologyFile read(String fileName) throws IOException {
+        try (FileChannel channel = new RandomAccessFile(fileName, "r").getChannel()) {
+            long size = channel.size();
+            if (size < HEADER_SIZE) throw new IOException(fileName + ": too short to be a topology file");
+            ByteBuffer header = map(channel, 0, HEADER_SIZE);
+            if (header.getInt() != MAGIC) throw new IOException(fileName + ": not a binary topology file");
+            int version = header.getInt();
+            if (version != VERSION) throw new IOException(fileName + ": unsupported topology file version " + version);
+            int n = header.getInt();
+            int m = header.getInt();
+            if (n < 0 || m < 0) throw new IOException(fileName + ": bad node or edge count");
+            long expected = HEADER_SIZE + nsapBytes(n) + 24L * n + 24L * m;
+            if (size != expected) throw new IOException(fileName + ": is " + size + " bytes, expected " + expected);
+
+            TopologyFile t = new TopologyFile(n, m);
+            long offset = HEADER_SIZE;
+            map(channel, offset, 4L * n).asIntBuffer().get(t.nsap);
+            offset += nsapBytes(n);
+            map(channel, offset, 8L * n).asDoubleBuffer().get(t.probDown);
+            offset += 8L * n;
+            map(channel, offset, 8L * n).asDoubleBuffer().get(t.downTime);
+            offset += 8L * n;
+            map(channel, offset, 8L * n).asDoubleBuffer().get(t.downDev);
+            offset += 8L * n;
+            map(channel, offset, 4L * m).asIntBuffer().get(t.source);
+            offset += 4L * m;
+            map(channel, offset, 4L * m).asIntBuffer().get(t.dest);
+            offset += 4L * m;
+            map(channel, offset, 8L * m).asDoubleBuffer().get(t.meanSpeed);
+            offset += 8L * m;
+            map(channel, offset, 8L * m).asDoubleBuffer().get(t.stdSpeed);
+
+            for (int e = 0; e < m; e++) {
+                if (t.source[e] < 0 || t.source[e] >= n || t.dest[e] < 0 || t.dest[e] >= n)
+                    throw new IOException(fileName + ": edge " + e + " refers to a node that does not exist");
+            }
+            return t;
+        }
+    }
+
+    // Map one section of the file (each array is mapped on its own so no mapping nears the 2GB limit)
+    private static ByteBuffer map(FileChannel channel, long offset, long length) throws IOException {
+        return channel.map(FileChannel.MapMode.READ_ONLY, offset, length).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    /**
+     * Write this topology as a binary topology file
+     **/
+    public void write(String fileName) throws IOException {
+        try (RandomAccessFile file = new RandomAccessFile(fileName, "rw")) {
+            file.setLength(0);
+            FileChannel channel = file.getChannel();
+            ByteBuffer buf = ByteBuffer.allocateDirect(1 << 16).order(ByteOrder.LITTLE_ENDIAN);
+            buf.putInt(MAGIC).putInt(VERSION).putInt(nodeCount).putInt(edgeCount);
+            putInts(channel, buf, nsap, nodeCount);
+            if (nsapBytes(nodeCount) != 4L * nodeCount) buf.putInt(0);
+            putDoubles(channel, buf, probDown, nodeCount);
+            putDoubles(channel, buf, downTime, nodeCount);
+            putDoubles(channel, buf, downDev, nodeCount);
+            putInts(channel, buf, source, edgeCount);
+            putInts(channel, buf, dest, edgeCount);
+            putDoubles(channel, buf, meanSpeed, edgeCount);
+            putDoubles(channel, buf, stdSpeed, edgeCount);
+            flush(channel, buf);
+        }
+    }
+
+    private static void putInts(FileChannel channel, ByteBuffer buf, int[] values, int count) throws IOException {
+        for (int i = 0; i < count; i++) {
+            if (buf.remaining() < 8) flush(channel, buf);
+            buf.putInt(values[i]);
+        }
+    }
+
+    private static void putDoubles(FileChannel channel, ByteBuffer buf, double[] values, int count) throws IOException {
+        for (int i = 0; i < count; i++) {
+            if (buf.remaining() < 8) flush(channel, buf);
+            buf.putDouble(values[i]);
+        }
+    }
+
+    private static void flush(FileChannel channel, ByteBuffer buf) throws IOException {
+        buf.flip();
+        while (buf.hasRemaining()) channel.write(buf);
+        buf.clear();
+    }
+
+    /**
+     * Read a .gqu text file (keeping its order of nodes and edges)
+     **/
+    public static TopologyFile fromText(String fileName, boolean memoryMapped) throws Exception {
+        TopologyParser parser = new TopologyParser(fileName, memoryMapped);
+        HashMap<Integer, Integer> indices = new HashMap<Integer, Integer>();
+        TopologyFile t = new TopologyFile(0, 0);
+        parser.parse(new TopologyParser.Handler() {
+            public void node(int nsap, double prob, double meanDown, double stdDown) throws Exception {
+                if (indices.containsKey(nsap)) {
+                    throw new Exception("Node (" + nsap + ") defined twice.");
+                }
+                int i = t.nodeCount++;
+                if (i == t.nsap.length) t.growNodes(Math.max(16, i * 2));
+                indices.put(nsap, i);
+                t.nsap[i] = nsap;
+                t.probDown[i] = prob;
+                t.downTime[i] = meanDown;
+                t.downDev[i] = stdDown;
+            }
+            public void link(int nsapA, int nsapB, double mean, double std) throws Exception {
+                Integer a = indices.get(nsapA);
+                if (a == null) {
+                    throw new Exception("Node (" + nsapA + ") not found.");
+                }
+                Integer b = indices.get(nsapB);
+                if (b == null) {
+                    throw new Exception("Node (" + nsapB + ") not found.");
+                }
+                int e = t.edgeCount++;
+                if (e == t.source.length) t.growEdges(Math.max(16, e * 2));
+                t.source[e] = a;
+                t.dest[e] = b;
+                t.meanSpeed[e] = mean;
+                t.stdSpeed[e] = std;
+            }
+        });
+        t.growNodes(t.nodeCount);
+        t.growEdges(t.edgeCount);
+        return t;
+    }
+
+    private void growNodes(int size) {
+        nsap = Arrays.copyOf(nsap, size);
+        probDown = Arrays.copyOf(probDown, size);
+        downTime = Arrays.copyOf(downTime, size);
+        downDev = Arrays.copyOf(downDev, size);
+    }
+
+    private void growEdges(int size) {
+        source = Arrays.copyOf(source, size);
+        dest = Arrays.copyOf(dest, size);
+        meanSpeed = Arrays.copyOf(meanSpeed, size);
+        stdSpeed = Arrays.copyOf(stdSpeed, size);
+    }
+
+    /**
+     * True if the other topology has exactly the same nodes and edges, in the same order
+     **/
+    public boolean sameAs(TopologyFile other) {
+        return nodeCount == other.nodeCount && edgeCount == other.edgeCount
+            && Arrays.equals(nsap, other.nsap) && Arrays.equals(probDown, other.probDown)
+            && Arrays.equals(downTime, other.downTime) && Arrays.equals(downDev, other.downDev)
+            && Arrays.equals(source, other.source) && Arrays.equals(dest, other.dest)
+            && Arrays.equals(meanSpeed, other.meanSpeed) && Arrays.equals(stdSpeed, other.stdSpeed);
+    }
+
+    /**
+     * Convert a .gqu text file to a binary topology file
+     **/
+    public static void main(String[] args) {
+        if (args.length != 2) {
+            System.err.println("Usage: java TopologyFile <network.gqu> <network.gqb>");
+            System.exit(1);
+        }
+        try {
+            long startTime = System.nanoTime();
+            TopologyFile t = fromText(args[0], true);
+            t.write(args[1]);
+            System.out.println("Wrote " + t.nodeCount + " nodes and " + t.edgeCount + " links to " + args[1]
+                               + " in " + (System.nanoTime() - startTime) / 1000000 + "ms");
+        } catch (Exception e) {
+            System.err.println("Error converting " + args[0]);
+            System.err.println(e.getMessage());
+            System.exit(1);
+        }
+    }
+}
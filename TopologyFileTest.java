@@ -0,0 +1,82 @@
+//Round trip of the test networks through the binary topology format: each .gqu file is converted,
+//read back, and loaded into a Network both ways - everything must come out the same.
+//Then two files are loaded into one network, which must hold both of them.
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.PrintStream;
+import java.util.HashSet;
+
+public class TopologyFileTest {
+	public static void main(String[] args) throws Exception {
+		String[] files = { "testGraph.gqu", "testGraph2.gqu", "testGraph3.gqu" };
+		if (args.length > 0) files = args;
+		boolean allPassed = true;
+
+		for (String fileName : files) {
+			File binary = File.createTempFile("topology", ".gqb");
+			binary.deleteOnExit();
+
+			TopologyFile text = TopologyFile.fromText(fileName, false);
+			text.write(binary.getPath());
+			TopologyFile read = TopologyFile.read(binary.getPath());
+			boolean same = text.sameAs(read);
+
+			//Both ways of loading must build the same network
+			Network fromText = new Network();
+			fromText.loadNetwork(fileName);
+			Network fromBinary = new Network();
+			fromBinary.loadNetwork(binary.getPath());
+			same &= fromText.getNodeCount() == fromBinary.getNodeCount();
+			same &= fromText.getLinkCount() == fromBinary.getLinkCount();
+			same &= print(fromText).equals(print(fromBinary));
+
+			System.out.println(fileName + ": " + text.nodeCount + " nodes, " + text.edgeCount + " links, "
+							   + binary.length() + " bytes - " + (same ? "OK" : "FAILED"));
+			allPassed &= same;
+			binary.delete();
+		}
+
+		//Two (disjoint) networks loaded one after the other - the second as text and as binary
+		for (boolean binarySecond : new boolean[] { false, true }) {
+			String first = "testGraph.gqu";
+			String second = "testGraph3.gqu";
+			File binary = File.createTempFile("topology", ".gqb");
+			binary.deleteOnExit();
+			TopologyFile.fromText(second, false).write(binary.getPath());
+
+			Network both = new Network();
+			both.loadNetwork(first);
+			both.loadNetwork(binarySecond ? binary.getPath() : second);
+			Network a = new Network();
+			a.loadNetwork(first);
+			Network b = new Network();
+			b.loadNetwork(second);
+
+			HashSet<String> expected = nodesOf(a);
+			expected.addAll(nodesOf(b));
+			boolean same = both.getNodeCount() == a.getNodeCount() + b.getNodeCount();
+			same &= both.getLinkCount() == a.getLinkCount() + b.getLinkCount();
+			same &= nodesOf(both).equals(expected);
+
+			System.out.println(first + " then " + second + (binarySecond ? " (binary)" : "") + ": "
+							   + both.getNodeCount() + " nodes, " + both.getLinkCount() + " links - " + (same ? "OK" : "FAILED"));
+			allPassed &= same;
+			binary.delete();
+		}
+
+		System.exit(allPassed ? 0 : 1);
+	}
+
+	private static String print(Network net) {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		net.printNetwork(new PrintStream(out));
+		return out.toString();
+	}
+
+	//Each node as printed (with its links)
+	private static HashSet<String> nodesOf(Network net) {
+		HashSet<String> result = new HashSet<String>();
+		for (String node : print(net).split("\n(?=Node )")) result.add(node.trim());
+		return result;
+	}
+}
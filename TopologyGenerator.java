@@ -0,0 +1,276 @@
+/***************
+ * TopologyGenerator
+ *
+ * Builds synthetic networks directly into a Network (through addNode/addLink), for testing routers on
+ * topologies far bigger than anyone would write by hand:
+ *   - random (Erdos-Renyi G(n, p)),
+ *   - scale-free (Barabasi-Albert preferential attachment),
+ *   - 2D grid or torus,
+ *   - fat-tree (k-ary, with hosts),
+ *   - ring.
+ * Every connection is a pair of one-way links with the same speed.  Link speeds are drawn from a
+ * configurable distribution and every node gets the configured failure probability.  The same seed
+ * always gives the same network, and each generator runs in time proportional to the size of its
+ * output, so hundreds of thousands of nodes take seconds.
+ *
+ * A topology can also be named by a spec (see generate), which is how Main takes one in place of a file.
+ ***************/
+import java.util.Random;
+
+public class TopologyGenerator {
+    /**
+     * How link speeds (mean delays, in ms) are spread around the configured mean
+     **/
+    public enum SpeedDistribution {
+        CONSTANT,     // Every link gets the mean
+        UNIFORM,      // Uniform in mean +/- spread
+        NORMAL,       // Gaussian with standard deviation spread
+        EXPONENTIAL   // Exponential with the given mean (spread is ignored) - a few very slow links
+    }
+
+    private static final double MIN_SPEED = 1;  // No link is faster than this (ms)
+    private static final String[] SPEC_NAMES = { "random", "scalefree", "grid", "torus", "fattree", "ring" };
+
+    private Random rand;
+    private int firstNsap;          // NSAP of the first node generated (the rest follow on)
+    private SpeedDistribution speedDistribution;
+    private double meanSpeed;       // Mean link delay (ms)
+    private double speedSpread;     // Spread of the link delays (see SpeedDistribution)
+    private double jitter;          // Each link's standard deviation, as a fraction of its mean
+    private double probDown;        // Failure settings given to every node (see Network.Node)
+    private double downTime;
+    private double downDev;
+
+    /**
+     * A generator seeded for reproducible networks
+     **/
+    public TopologyGenerator(long seed) {
+        rand = new Random(seed);
+        firstNsap = 1;
+        speedDistribution = SpeedDistribution.UNIFORM;
+        meanSpeed = 20;
+        speedSpread = 10;
+        jitter = 0.1;
+        probDown = 0;
+        downTime = 0;
+        downDev = 0;
+    }
+
+    /** Number nodes from this NSAP upwards (default 1) **/
+    public TopologyGenerator setFirstNsap(int nsap) {
+        firstNsap = nsap;
+        return this;
+    }
+
+    /**
+     * How link speeds are chosen
+     * @param jitter Standard deviation of each link's speed as a fraction of its mean
+     **/
+    public TopologyGenerator setLinkSpeeds(SpeedDistribution distribution, double mean, double spread, double jitter) {
+        this.speedDistribution = distribution;
+        this.meanSpeed = mean;
+        this.speedSpread = spread;
+        this.jitter = jitter;
+        return this;
+    }
+
+    /**
+     * Failure settings for every node: probability of going down each second, mean and standard
+     * deviation of the time it then stays down (in seconds)
+     **/
+    public TopologyGenerator setFailures(double probDown, double downTime, double downDev) {
+        this.probDown = probDown;
+        this.downTime = downTime;
+        this.downDev = downDev;
+        return this;
+    }
+
+    // ---- Topologies ----
+
+    /**
+     * Random network: each pair of the n nodes is connected with probability averageDegree/(n-1).
+     * Pairs are skipped over geometrically (Batagelj & Brandes), so this takes O(n + links) not O(n^2).
+     **/
+    public void random(Network net, int n, double averageDegree) throws Exception {
+        addNodes(net, n);
+        if (n < 2) return;
+        double p = Math.min(1, averageDegree / (n - 1));
+        if (p <= 0) return;
+        double logQ = Math.log(1 - p);
+        long v = 1;
+        long w = -1;
+        while (v < n) {
+            if (p >= 1) {
+                w++;
+            } else {
+                w += 1 + (long) Math.floor(Math.log(1 - rand.nextDouble()) / logQ);
+            }
+            while (w >= v && v < n) {
+                w -= v;
+                v++;
+            }
+            if (v < n) connect(net, (int) v, (int) w);
+        }
+    }
+
+    /**
+     * Scale-free network: starts with a clique of m + 1 nodes, then each new node connects to m
+     * distinct existing nodes chosen with probability proportional to their degree
+     **/
+    public void scaleFree(Network net, int n, int m) throws Exception {
+        if (m < 1) throw new Exception("Scale-free networks need at least one link per new node.");
+        addNodes(net, n);
+        int seed = Math.min(n, m + 1);
+        // Every link end, so picking a uniform entry picks a node in proportion to its degree
+        int[] ends = new int[2 * (seed * (seed - 1) / 2 + Math.max(0, n - seed) * m)];
+        int endCount = 0;
+        for (int a = 0; a < seed; a++) {
+            for (int b = a + 1; b < seed; b++) {
+                connect(net, a, b);
+                ends[endCount++] = a;
+                ends[endCount++] = b;
+            }
+        }
+        int[] chosen = new int[m];
+        for (int v = seed; v < n; v++) {
+            int count = 0;
+            while (count < m) {
+                int target = ends[rand.nextInt(endCount)];
+                boolean seen = false;
+                for (int i = 0; i < count; i++) seen |= (chosen[i] == target);
+                if (!seen) chosen[count++] = target;
+            }
+            for (int i = 0; i < m; i++) {
+                connect(net, v, chosen[i]);
+                ends[endCount++] = v;
+                ends[endCount++] = chosen[i];
+            }
+        }
+    }
+
+    /**
+     * Grid of width x height nodes, each connected to its neighbors; a torus also wraps around the edges
+     **/
+    public void grid(Network net, int width, int height, boolean torus) throws Exception {
+        addNodes(net, width * height);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int v = y * width + x;
+                if (x + 1 < width) connect(net, v, v + 1);
+                else if (torus && width > 2) connect(net, v, y * width);
+                if (y + 1 < height) connect(net, v, v + width);
+                else if (torus && height > 2) connect(net, v, x);
+            }
+        }
+    }
+
+    /**
+     * k-ary fat-tree (k even): (k/2)^2 core switches, and k pods of k/2 aggregation and k/2 edge
+     * switches, with k/2 hosts on each edge switch - 5k^2/4 switches and k^3/4 hosts in all.
+     * Nodes are numbered core, then per pod aggregation and edge switches, then hosts.
+     **/
+    public void fatTree(Network net, int k) throws Exception {
+        if (k < 2 || k % 2 != 0) throw new Exception("Fat-trees need an even k of at least 2.");
+        int half = k / 2;
+        int cores = half * half;
+        int switches = cores + k * k;
+        int hosts = k * half * half;
+        addNodes(net, switches + hosts);
+        for (int pod = 0; pod < k; pod++) {
+            int aggregation = cores + pod * k;  // First aggregation switch of the pod
+            int edge = aggregation + half;      // First edge switch of the pod
+            for (int a = 0; a < half; a++) {
+                // Aggregation switch a reaches core switches a*k/2 .. a*k/2 + k/2 - 1
+                for (int c = 0; c < half; c++) connect(net, aggregation + a, a * half + c);
+                for (int e = 0; e < half; e++) connect(net, aggregation + a, edge + e);
+            }
+            for (int e = 0; e < half; e++) {
+                int firstHost = switches + (pod * half + e) * half;
+                for (int h = 0; h < half; h++) connect(net, edge + e, firstHost + h);
+            }
+        }
+    }
+
+    /**
+     * Ring of n nodes, each connected to the next
+     **/
+    public void ring(Network net, int n) throws Exception {
+        addNodes(net, n);
+        for (int v = 0; v + 1 < n; v++) connect(net, v, v + 1);
+        if (n > 2) connect(net, n - 1, 0);
+    }
+
+    /**
+     * Generate the topology a spec names: "random:N:DEGREE", "scalefree:N:M", "grid:WIDTH:HEIGHT",
+     * "torus:WIDTH:HEIGHT", "fattree:K" or "ring:N"
+     **/
+    public void generate(Network net, String spec) throws Exception {
+        String[] part = spec.split(":");
+        try {
+            switch (part[0]) {
+            case "random":
+                if (part.length == 3) { random(net, Integer.parseInt(part[1]), Double.parseDouble(part[2])); return; }
+                break;
+            case "scalefree":
+                if (part.length == 3) { scaleFree(net, Integer.parseInt(part[1]), Integer.parseInt(part[2])); return; }
+                break;
+            case "grid":
+            case "torus":
+                if (part.length == 3) { grid(net, Integer.parseInt(part[1]), Integer.parseInt(part[2]), part[0].equals("torus")); return; }
+                break;
+            case "fattree":
+                if (part.length == 2) { fatTree(net, Integer.parseInt(part[1])); return; }
+                break;
+            case "ring":
+                if (part.length == 2) { ring(net, Integer.parseInt(part[1])); return; }
+                break;
+            }
+        } catch (NumberFormatException e) {
+            // Reported below
+        }
+        throw new Exception("Bad topology spec: " + spec + " (expected e.g. random:1000:4, scalefree:1000:2, grid:30:30, torus:30:30, fattree:8 or ring:100)");
+    }
+
+    /** True if the string names a generated topology (rather than a file) **/
+    public static boolean isSpec(String s) {
+        int colon = s.indexOf(':');
+        if (colon < 0) return false;
+        String name = s.substring(0, colon);
+        for (String n : SPEC_NAMES) {
+            if (n.equals(name)) return true;
+        }
+        return false;
+    }
+
+    // ---- Building ----
+
+    private void addNodes(Network net, int n) throws Exception {
+        for (int i = 0; i < n; i++) net.addNode(firstNsap + i, probDown, downTime, downDev);
+    }
+
+    // Both one-way links between two generated nodes (by number), with the same speed
+    private void connect(Network net, int a, int b) throws Exception {
+        double mean = nextSpeed();
+        double std = mean * jitter;
+        net.addLink(firstNsap + a, firstNsap + b, mean, std);
+        net.addLink(firstNsap + b, firstNsap + a, mean, std);
+    }
+
+    private double nextSpeed() {
+        double speed;
+        switch (speedDistribution) {
+        case UNIFORM:
+            speed = meanSpeed + (2 * rand.nextDouble() - 1) * speedSpread;
+            break;
+        case NORMAL:
+            speed = meanSpeed + rand.nextGaussian() * speedSpread;
+            break;
+        case EXPONENTIAL:
+            speed = -meanSpeed * Math.log(1 - rand.nextDouble());
+            break;
+        default:
+            speed = meanSpeed;
+        }
+        return Math.max(MIN_SPEED, speed);
+    }
+}
@@ -0,0 +1,100 @@
+//Checks of the synthetic topologies: each generator must build the number of nodes and links its
+//shape calls for, and the same seed must always give the same network.
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+
+public class TopologyGeneratorTest {
+	interface Build {
+		void build(TopologyGenerator generator, Network net) throws Exception;
+	}
+
+	private static boolean allPassed = true;
+
+	public static void main(String[] args) throws Exception {
+		int n = 1000;
+		int m = 3;
+		int w = 10;
+		int h = 7;
+
+		Network random = check("random:" + n + ":4", (g, net) -> g.random(net, n, 4), n, -1);
+		report("random: links come in pairs", random.getLinkCount() % 2 == 0);
+
+		//A clique of m+1 nodes, then m links for every later node - so nobody has fewer than m
+		Network scaleFree = check("scalefree:" + n + ":" + m, (g, net) -> g.scaleFree(net, n, m), n, 2 * (m * (m + 1) / 2 + (n - m - 1) * m));
+		report("scalefree: smallest degree is " + m, countDegree(scaleFree, m) > 0 && minDegree(scaleFree) == m);
+
+		check("grid:" + w + ":" + h, (g, net) -> g.grid(net, w, h, false), w * h, 2 * ((w - 1) * h + w * (h - 1)));
+		Network torus = check("torus:" + w + ":" + h, (g, net) -> g.grid(net, w, h, true), w * h, 2 * 2 * w * h);
+		report("torus: every node has degree 4", countDegree(torus, 4) == w * h);
+
+		for (int k = 2; k <= 8; k += 2) {
+			final int K = k;
+			int switches = 5 * k * k / 4;
+			int hosts = k * k * k / 4;
+			//Core to aggregation, aggregation to edge and edge to host: k^3/4 connections each
+			Network fatTree = check("fattree:" + k, (g, net) -> g.fatTree(net, K), switches + hosts, 2 * 3 * hosts);
+			report("fattree:" + k + ": " + switches + " switches (degree k) and " + hosts + " hosts (degree 1)",
+				   countDegree(fatTree, k) == switches && countDegree(fatTree, 1) == hosts);
+		}
+
+		Network ring = check("ring:" + n, (g, net) -> g.ring(net, n), n, 2 * n);
+		report("ring: every node has degree 2", countDegree(ring, 2) == n);
+
+		//Generating onto a network that was already loaded
+		Network both = new Network();
+		both.loadNetwork("testGraph.gqu");
+		int loadedNodes = both.getNodeCount();
+		int loadedLinks = both.getLinkCount();
+		new TopologyGenerator(1).setFirstNsap(1000).ring(both, 10);
+		report("ring added to testGraph.gqu", both.getNodeCount() == loadedNodes + 10 && both.getLinkCount() == loadedLinks + 20);
+
+		//Specs (as Main takes them)
+		Network spec = new Network();
+		new TopologyGenerator(1).generate(spec, "torus:5:4");
+		report("spec torus:5:4", spec.getNodeCount() == 20 && spec.getLinkCount() == 80);
+		report("spec names", TopologyGenerator.isSpec("fattree:4") && !TopologyGenerator.isSpec("testGraph.gqu"));
+
+		System.exit(allPassed ? 0 : 1);
+	}
+
+	//Build twice with the same seed: the counts must be right and the two networks identical
+	private static Network check(String name, Build build, int nodes, int links) throws Exception {
+		Network first = new Network();
+		build.build(new TopologyGenerator(42), first);
+		Network second = new Network();
+		build.build(new TopologyGenerator(42), second);
+		boolean counts = first.getNodeCount() == nodes && (links < 0 || first.getLinkCount() == links);
+		report(name + ": " + first.getNodeCount() + " nodes, " + first.getLinkCount() + " links", counts);
+		report(name + ": same seed, same network", print(first).equals(print(second)));
+		return first;
+	}
+
+	private static void report(String what, boolean passed) {
+		System.out.println(what + " - " + (passed ? "OK" : "FAILED"));
+		allPassed &= passed;
+	}
+
+	private static int degree(Network net, Network.Node node) {
+		int[] count = { 0 };
+		net.forEachOutgoingLink(node, dest -> count[0]++);
+		return count[0];
+	}
+
+	private static int countDegree(Network net, int d) {
+		int[] count = { 0 };
+		net.forEachNode((id, node) -> { if (degree(net, node) == d) count[0]++; });
+		return count[0];
+	}
+
+	private static int minDegree(Network net) {
+		int[] min = { Integer.MAX_VALUE };
+		net.forEachNode((id, node) -> min[0] = Math.min(min[0], degree(net, node)));
+		return min[0];
+	}
+
+	private static String print(Network net) {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		net.printNetwork(new PrintStream(out));
+		return out.toString();
+	}
+}
@@ -0,0 +1,309 @@
+/***************
+ * TopologyParser
+ *
+ * Reads a network description in the .gqu text format (see testGraph.gqu) straight from bytes:
+ *   - a line with the node and edge counts,
+ *   - one line per node:  NSAP PROB_DOWN MEAN_DOWN STD_DOWN
+ *   - one line per edge:  NSAP_A NSAP_B MEAN_SPEED STD_SPEED
+ * '#' starts a comment that runs to the end of the line, and fields may be separated by any mix of
+ * spaces and tabs.  Anything after the fields of a line is ignored.
+ *
+ * Numbers are parsed as they are read, from a reused byte buffer, so no Strings or other objects are
+ * made per token or per line - loading a million edges costs no more garbage than loading ten.
+ * The file is either streamed through the buffer or read from memory-mapped windows of the file.
+ ***************/
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+public class TopologyParser {
+    /**
+     * Receives the nodes and edges as they are read
+     **/
+    public interface Handler {
+        void node(int nsap, double probDown, double downTime, double downDev) throws Exception;
+        void link(int nsapA, int nsapB, double meanSpeed, double stdSpeed) throws Exception;
+    }
+
+    private static final int BUFFER_SIZE = 1 << 16;
+    private static final long MAP_WINDOW = 1L << 26;  // Bytes mapped at a time (64MB)
+    private static final double[] POWERS_OF_TEN = {
+        1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+        1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22 };
+
+    private InputStream in;          // Where the bytes come from when streaming
+    private FileChannel channel;     // ... or when memory-mapped
+    private long mapped;             // How far into the channel has been mapped
+    private MappedByteBuffer window; // The part currently mapped
+    private byte[] buf;
+    private int pos;                 // Next byte of buf to read
+    private int limit;               // End of the valid bytes in buf
+    private int line;                // Line number (for error messages)
+    private char[] token;            // The characters of the number being parsed (only used if it is unusual)
+    private int tokenLength;
+    private boolean started;         // Whether the first record has been read
+
+    private int nodeCount;          // From the header
+    private int edgeCount;
+
+    /**
+     * Stream the description from an input stream
+     **/
+    public TopologyParser(InputStream in) {
+        this.in = in;
+        init();
+    }
+
+    /**
+     * Read the description of a file, memory-mapping it if asked to (otherwise it is streamed)
+     **/
+    public TopologyParser(String fileName, boolean memoryMapped) throws IOException {
+        FileInputStream file = new FileInputStream(fileName);
+        if (memoryMapped) {
+            channel = file.getChannel();
+            mapped = 0;
+        } else {
+            in = file;
+        }
+        init();
+    }
+
+    private void init() {
+        buf = new byte[BUFFER_SIZE];
+        pos = limit = 0;
+        line = 1;
+        token = new char[64];
+    }
+
+    /** Number of nodes the header announced **/
+    public int getNodeCount() { return nodeCount; }
+
+    /** Number of edges the header announced **/
+    public int getEdgeCount() { return edgeCount; }
+
+    /**
+     * Read the whole description, handing each node and edge to the handler, then close the input
+     **/
+    public void parse(Handler handler) throws Exception {
+        try {
+            nextRecord();
+            nodeCount = readInt();
+            edgeCount = readInt();
+            for (int i = 0; i < nodeCount; i++) {
+                nextRecord();
+                int nsap = readInt();
+                double prob = readDouble();
+                double meanDown = readDouble();
+                double stdDown = readDouble();
+                handler.node(nsap, prob, meanDown, stdDown);
+            }
+            for (int i = 0; i < edgeCount; i++) {
+                nextRecord();
+                int nsapA = readInt();
+                int nsapB = readInt();
+                double meanSpeed = readDouble();
+                double stdSpeed = readDouble();
+                handler.link(nsapA, nsapB, meanSpeed, stdSpeed);
+            }
+        } finally {
+            close();
+        }
+    }
+
+    /** Close the input **/
+    public void close() throws IOException {
+        if (in != null) in.close();
+        if (channel != null) channel.close();
+    }
+
+    // ---- Bytes ----
+
+    // Refill the buffer - returns false at the end of the input
+    private boolean fill() throws IOException {
+        if (channel != null) {
+            if (window == null || !window.hasRemaining()) {
+                long size = channel.size();
+                if (mapped >= size) return false;
+                long length = Math.min(MAP_WINDOW, size - mapped);
+                window = channel.map(FileChannel.MapMode.READ_ONLY, mapped, length);
+                mapped += length;
+            }
+            limit = Math.min(buf.length, window.remaining());
+            window.get(buf, 0, limit);
+        } else {
+            limit = in.read(buf, 0, buf.length);
+            if (limit <= 0) {
+                limit = 0;
+                pos = 0;
+                return false;
+            }
+        }
+        pos = 0;
+        return true;
+    }
+
+    // The next byte without taking it (-1 at the end of the input)
+    private int peek() throws IOException {
+        if (pos == limit && !fill()) return -1;
+        return buf[pos];
+    }
+
+    // Skip spaces and tabs (not line ends)
+    private void skipBlanks() throws IOException {
+        int c = peek();
+        while (c == ' ' || c == '\t' || c == '\r') {
+            pos++;
+            c = peek();
+        }
+    }
+
+    // Skip the rest of the current line
+    private void skipLine() throws IOException {
+        int c = peek();
+        while (c != '\n' && c != -1) {
+            pos++;
+            c = peek();
+        }
+        if (c == '\n') {
+            pos++;
+            line++;
+        }
+    }
+
+    // Move to the start of the next line that has something other than blanks and comments on it
+    // (the rest of the current line, if any, is skipped first)
+    private void nextRecord() throws IOException {
+        if (started) skipLine();
+        started = true;
+        while (true) {
+            skipBlanks();
+            int c = peek();
+            if (c == -1) throw new IOException("Line " + line + ": unexpected end of file");
+            if (c != '\n' && c != '#') return;
+            skipLine();
+        }
+    }
+
+    // ---- Numbers ----
+
+    private IOException expected(String what) throws IOException {
+        int c = peek();
+        String found = (c == -1) ? "end of file" : (c == '\n') ? "end of line" : "'" + (char) c + "'";
+        return new IOException("Line " + line + ": expected " + what + " but found " + found);
+    }
+
+    private void keep(int c) {
+        if (tokenLength < token.length) token[tokenLength] = (char) c;
+        tokenLength++;
+    }
+
+    // Read an integer field
+    private int readInt() throws IOException {
+        skipBlanks();
+        int c = peek();
+        boolean negative = false;
+        if (c == '-' || c == '+') {
+            negative = (c == '-');
+            pos++;
+            c = peek();
+        }
+        if (c < '0' || c > '9') throw expected("an integer");
+        long value = 0;
+        while (c >= '0' && c <= '9') {
+            value = value * 10 + (c - '0');
+            if (value > (long) Integer.MAX_VALUE + 1) throw new IOException("Line " + line + ": integer too large");
+            pos++;
+            c = peek();
+        }
+        if (negative) value = -value;
+        if (value > Integer.MAX_VALUE) throw new IOException("Line " + line + ": integer too large");
+        return (int) value;
+    }
+
+    // Read a decimal field (digits, optional fraction and exponent)
+    private double readDouble() throws IOException {
+        skipBlanks();
+        tokenLength = 0;
+        int c = peek();
+        boolean negative = false;
+        if (c == '-' || c == '+') {
+            negative = (c == '-');
+            keep(c);
+            pos++;
+            c = peek();
+        }
+        long mantissa = 0;
+        int digits = 0;      // Significant digits in mantissa
+        int exponent = 0;    // Power of ten to apply to mantissa
+        boolean any = false;
+        boolean exact = true;  // False if digits had to be dropped
+        while (c >= '0' && c <= '9') {
+            if (digits < 18) {
+                mantissa = mantissa * 10 + (c - '0');
+                if (mantissa != 0) digits++;
+            } else {
+                exponent++;
+                exact = false;
+            }
+            any = true;
+            keep(c);
+            pos++;
+            c = peek();
+        }
+        if (c == '.') {
+            keep(c);
+            pos++;
+            c = peek();
+            while (c >= '0' && c <= '9') {
+                if (digits < 18) {
+                    mantissa = mantissa * 10 + (c - '0');
+                    if (mantissa != 0) digits++;
+                    exponent--;
+                } else {
+                    exact = false;
+                }
+                any = true;
+                keep(c);
+                pos++;
+                c = peek();
+            }
+        }
+        if (!any) throw expected("a number");
+        if (c == 'e' || c == 'E') {
+            keep(c);
+            pos++;
+            c = peek();
+            boolean negativeExponent = false;
+            if (c == '-' || c == '+') {
+                negativeExponent = (c == '-');
+                keep(c);
+                pos++;
+                c = peek();
+            }
+            if (c < '0' || c > '9') throw expected("an exponent");
+            int e = 0;
+            while (c >= '0' && c <= '9') {
+                if (e < 100000) e = e * 10 + (c - '0');
+                keep(c);
+                pos++;
+                c = peek();
+            }
+            exponent += negativeExponent ? -e : e;
+        }
+
+        double value;
+        if (exact && mantissa < (1L << 53) && exponent >= -22 && exponent <= 22) {
+            // Both the mantissa and the power of ten are exact doubles, so this is correctly rounded
+            value = (exponent >= 0) ? mantissa * POWERS_OF_TEN[exponent] : mantissa / POWERS_OF_TEN[-exponent];
+            if (negative) value = -value;
+        } else if (tokenLength <= token.length) {
+            // Unusual number - let the library get the rounding right
+            value = Double.parseDouble(new String(token, 0, tokenLength));
+        } else {
+            throw new IOException("Line " + line + ": number too long");
+        }
+        return value;
+    }
+}
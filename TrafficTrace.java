@@ -0,0 +1,217 @@
+/***************
+ * TrafficTrace
+ *
+ * A recorded stream of traffic to replay through a Network (see Network.runTrace): one fixed-width
+ * record per packet, in time order:
+ *   long timeOffset (ms since the start of the run), int source NSAP, int dest NSAP, int size (bytes)
+ * after a header of int magic ("GQUT") and int version, all little-endian.
+ *
+ * Traces can be far bigger than memory: a background thread reads ahead a bounded number of chunks
+ * of records, which are decoded into primitive arrays and recycled, so replaying keeps a fixed amount
+ * in memory and does not wait on the disk (unless the disk cannot keep up at all).
+ *
+ * Run it to turn a text trace (lines of "TIME SOURCE DEST SIZE", '#' comments) into a binary one:
+ *   java TrafficTrace trace.txt trace.bin
+ ***************/
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.ArrayBlockingQueue;
+
+public class TrafficTrace implements AutoCloseable {
+    public static final int MAGIC = 0x54555147;  // "GQUT" as little-endian bytes
+    public static final int VERSION = 1;
+    public static final int HEADER_SIZE = 8;
+    public static final int RECORD_SIZE = 20;
+
+    private static final int CHUNK_RECORDS = 4096;  // Records read at a time
+    private static final int READ_AHEAD = 4;         // Chunks read ahead of the replay
+
+    // A run of decoded records
+    private static class Chunk {
+        long[] time = new long[CHUNK_RECORDS];
+        int[] source = new int[CHUNK_RECORDS];
+        int[] dest = new int[CHUNK_RECORDS];
+        int[] size = new int[CHUNK_RECORDS];
+        int count;           // Records in use (0 = end of trace)
+        IOException error;   // Set if reading failed
+    }
+
+    private final FileChannel channel;
+    private final ArrayBlockingQueue<Chunk> full;   // Read, waiting to be replayed
+    private final ArrayBlockingQueue<Chunk> free;   // Replayed, waiting to be refilled
+    private final Thread reader;
+    private volatile boolean closed;
+
+    private Chunk current;   // The chunk being replayed
+    private int position;    // The current record in it
+    private boolean finished;
+
+    /**
+     * Open a binary trace and start reading ahead
+     **/
+    public TrafficTrace(String fileName) throws IOException {
+        channel = new RandomAccessFile(fileName, "r").getChannel();
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        while (header.hasRemaining() && channel.read(header) >= 0) { }
+        header.flip();
+        if (header.remaining() < HEADER_SIZE || header.getInt() != MAGIC) {
+            channel.close();
+            throw new IOException(fileName + ": not a traffic trace");
+        }
+        int version = header.getInt();
+        if (version != VERSION) {
+            channel.close();
+            throw new IOException(fileName + ": unsupported traffic trace version " + version);
+        }
+        full = new ArrayBlockingQueue<Chunk>(READ_AHEAD + 1);
+        free = new ArrayBlockingQueue<Chunk>(READ_AHEAD + 1);
+        for (int i = 0; i < READ_AHEAD + 1; i++) free.add(new Chunk());
+        reader = new Thread(this::readAhead, "TrafficTrace reader");
+        reader.setDaemon(true);
+        reader.start();
+        position = 0;
+        finished = false;
+    }
+
+    // The reader thread: fill free chunks from the file until it ends
+    private void readAhead() {
+        ByteBuffer buf = ByteBuffer.allocateDirect(CHUNK_RECORDS * RECORD_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        try {
+            while (!closed) {
+                Chunk chunk = free.take();
+                chunk.count = 0;
+                chunk.error = null;
+                buf.clear();
+                try {
+                    while (buf.hasRemaining() && channel.read(buf) >= 0) { }
+                    buf.flip();
+                    int count = buf.remaining() / RECORD_SIZE;
+                    for (int i = 0; i < count; i++) {
+                        chunk.time[i] = buf.getLong();
+                        chunk.source[i] = buf.getInt();
+                        chunk.dest[i] = buf.getInt();
+                        chunk.size[i] = buf.getInt();
+                    }
+                    chunk.count = count;
+                    if (buf.hasRemaining()) throw new IOException("Traffic trace ends in the middle of a record");
+                } catch (IOException e) {
+                    chunk.error = e;
+                }
+                full.put(chunk);
+                if (chunk.count == 0 || chunk.error != null) return;  // End of the trace (or an error)
+            }
+        } catch (InterruptedException e) {
+            // Closed
+        }
+    }
+
+    /**
+     * Move to the next record
+     * @returns false at the end of the trace
+     **/
+    public boolean next() throws IOException, InterruptedException {
+        if (finished) return false;
+        if (current != null && ++position < current.count) return true;
+        if (current != null) {
+            // A read error is raised once the records read before it have been replayed (and again if called again)
+            if (current.error != null) throw current.error;
+            free.put(current);
+        }
+        current = full.take();
+        position = 0;
+        if (current.count == 0) {
+            if (current.error != null) throw current.error;
+            finished = true;
+            return false;
+        }
+        return true;
+    }
+
+    /** The current record: when to send it (ms since the start), from where, to where and how big **/
+    public long getTime() { return current.time[position]; }
+    public int getSource() { return current.source[position]; }
+    public int getDest() { return current.dest[position]; }
+    public int getSize() { return current.size[position]; }
+
+    /**
+     * Stop reading and close the file
+     **/
+    public void close() throws IOException {
+        closed = true;
+        reader.interrupt();
+        channel.close();
+    }
+
+    /**
+     * Writes a binary trace (records must be written in time order)
+     **/
+    public static class Writer implements AutoCloseable {
+        private FileChannel channel;
+        private ByteBuffer buf;
+        private long lastTime;
+
+        public Writer(String fileName) throws IOException {
+            RandomAccessFile file = new RandomAccessFile(fileName, "rw");
+            file.setLength(0);
+            channel = file.getChannel();
+            buf = ByteBuffer.allocateDirect(CHUNK_RECORDS * RECORD_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            buf.putInt(MAGIC).putInt(VERSION);
+            lastTime = 0;
+        }
+
+        public void write(long time, int source, int dest, int size) throws IOException {
+            if (time < lastTime) throw new IOException("Trace records out of order at time " + time);
+            lastTime = time;
+            if (buf.remaining() < RECORD_SIZE) flush();
+            buf.putLong(time).putInt(source).putInt(dest).putInt(size);
+        }
+
+        private void flush() throws IOException {
+            buf.flip();
+            while (buf.hasRemaining()) channel.write(buf);
+            buf.clear();
+        }
+
+        public void close() throws IOException {
+            flush();
+            channel.close();
+        }
+    }
+
+    /**
+     * Convert a text trace to a binary one
+     **/
+    public static void main(String[] args) {
+        if (args.length != 2) {
+            System.err.println("Usage: java TrafficTrace <trace.txt> <trace.bin>");
+            System.exit(1);
+        }
+        long records = 0;
+        int lineNumber = 0;
+        try (BufferedReader in = new BufferedReader(new FileReader(args[0]));
+             Writer out = new Writer(args[1])) {
+            String line;
+            while ((line = in.readLine()) != null) {
+                lineNumber++;
+                String[] fields = line.split("#", 2)[0].trim().split("\\s+");
+                if (fields.length < 4) {
+                    if (fields[0].length() == 0) continue;  // Blank or just a comment
+                    throw new IOException("Line " + lineNumber + ": expected TIME SOURCE DEST SIZE");
+                }
+                out.write(Long.parseLong(fields[0]), Integer.parseInt(fields[1]),
+                          Integer.parseInt(fields[2]), Integer.parseInt(fields[3]));
+                records++;
+            }
+        } catch (Exception e) {
+            System.err.println("Error converting " + args[0] + " (line " + lineNumber + ")");
+            System.err.println(e.getMessage());
+            System.exit(1);
+        }
+        System.out.println("Wrote " + records + " records to " + args[1]);
+    }
+}
@@ -0,0 +1,54 @@
+//Replay of binary traffic traces: every record written must come back, in order.  A trace that ends
+//in the middle of a record must still give every whole record before it reports the error.
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+public class TrafficTraceTest {
+	public static void main(String[] args) throws Exception {
+		boolean allPassed = true;
+		//Within one chunk, and spread over several (with the error in the last one)
+		for (int records : new int[] { 0, 10, 4096, 10000 }) {
+			for (boolean truncated : new boolean[] { false, true }) {
+				File file = File.createTempFile("trace", ".bin");
+				file.deleteOnExit();
+				try (TrafficTrace.Writer writer = new TrafficTrace.Writer(file.getPath())) {
+					for (int i = 0; i < records; i++) writer.write(i, i % 7, i % 11, i);
+				}
+				if (truncated) {
+					try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+						raf.setLength(raf.length() + TrafficTrace.RECORD_SIZE / 2);  //Half a record
+					}
+				}
+
+				int read = 0;
+				boolean inOrder = true;
+				boolean failed = false;
+				boolean failedAgain = false;
+				try (TrafficTrace trace = new TrafficTrace(file.getPath())) {
+					try {
+						while (trace.next()) {
+							inOrder &= trace.getTime() == read && trace.getSource() == read % 7
+									   && trace.getDest() == read % 11 && trace.getSize() == read;
+							read++;
+						}
+					} catch (IOException e) {
+						failed = true;
+						try {
+							trace.next();
+						} catch (IOException again) {
+							failedAgain = true;
+						}
+					}
+				}
+
+				boolean passed = read == records && inOrder && failed == truncated && failedAgain == truncated;
+				System.out.println(records + " records" + (truncated ? " and half a record" : "") + ": read " + read
+								   + (failed ? " then an error" : "") + " - " + (passed ? "OK" : "FAILED"));
+				allPassed &= passed;
+				file.delete();
+			}
+		}
+		System.exit(allPassed ? 0 : 1);
+	}
+}